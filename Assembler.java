@@ -1,25 +1,286 @@
-import java.util.Arrays;
-import java.util.Collections;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.HashMap;
-
+import java.util.List;
+
+// Two pass assembler. The first pass tokenizes every line once, gives each label the address it lands on and works out
+// how big every segment is, the second encodes instructions (every label is known by then) and lays out data straight
+// into each segment's int[].
+// Source lines are instructions, "name:" labels (on their own line or before a statement), ';' comments and directives:
+//   .data address        following statements go into a data segment loaded at address (.text goes back to the program)
+//   .word a b c          one word per value, values can be numbers (decimal or 0x hex) or labels
+//   .fill count value    count copies of value
+//   .vector a b c        like .word, but limited to what one vector LOAD can take (31 elements)
+// A label can stand in for a branch offset (BRANCH loop IF LT) or an immediate (LOAD R1 table)
 public class Assembler {
+    private static final int MAX_VECTOR = 31; // Vector length field is 5 bits
+
+    private static final HashMap<String, Integer> opMap = new HashMap<>();
+    private static final HashMap<String, Integer> opMapV = new HashMap<>();
+    private static final HashMap<String, Integer> condMap = new HashMap<>();
+
+    static {
+        opMap.put("ADD", 0);
+        opMap.put("SUBTRACT", 1);
+        opMap.put("MULTIPLY", 2);
+        opMap.put("DIVIDE", 4);
+        opMap.put("MODULO", 8);
+        opMap.put("AND", 3);
+        opMap.put("OR", 5);
+        opMap.put("NOT", 9);
+        opMap.put("XOR", 10);
+        opMap.put("COMPARE", 12);
+        opMap.put("CMP", 12);
+        opMap.put("SET FLAG", 6);
+        opMap.put("SHIFT", 7);
+        opMap.put("SWAP", 11);
+        opMap.put("LOAD", 13);
+        opMap.put("STORE", 14);
+        opMap.put("BRANCH", 7);
+        opMap.put("SETVL", 15);
+
+        opMapV.put("ADD", 0);
+        opMapV.put("SUBTRACT", 1);
+        opMapV.put("MULTIPLY", 2);
+        opMapV.put("DIVIDE", 4);
+        opMapV.put("LOAD", 13);
+        opMapV.put("STORE", 14);
+        opMapV.put("APPEND", 7);
+        opMapV.put("VMULTIPLY", 3);
+        opMapV.put("FMA", 5);
+        opMapV.put("SUM", 8);
+        opMapV.put("MIN", 9);
+        opMapV.put("MAX", 10);
 
-    private static HashMap<String, Integer> opMap, opMapV, condMap;
+        condMap.put("EQ", 0);
+        condMap.put("NE", 1);
+        condMap.put("GT", 2);
+        condMap.put("GTE", 3);
+        condMap.put("LT", 4);
+        condMap.put("LTE", 5);
+    }
+
+    // An instruction or data directive and where it goes, kept from the first pass for the second
+    private static class Statement {
+        public final int lineNumber;
+        public final String[] tokens;
+        public final int offset; // Word offset in its segment
+
+        public Statement(int lineNumber, String[] tokens, int offset) {
+            this.lineNumber = lineNumber;
+            this.tokens = tokens;
+            this.offset = offset;
+        }
+    }
+
+    private static class Segment {
+        public final int address, flags;
+        public final ArrayList<Statement> statements = new ArrayList<>();
+        public int size = 0;
+        public boolean halted = false; // Whether the last statement was END/HALT
 
+        public Segment(int address, int flags) {
+            this.address = address;
+            this.flags = flags;
+        }
+    }
+
+    // Assembles a single instruction, labels can't be used
     public static int toBinary(String line) {
-        setupHashMaps();
+        String[] tokens = tokenize(line);
+        if (tokens.length == 0)
+            throw new IllegalArgumentException("Empty instruction");
 
-        if (line.equals("END") || line.equals("HALT"))
-            return Instruction.HALT;
+        return encode(tokens, 0, null);
+    }
+
+    public static ProgramImage assemble(Path file, int address) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(file)) {
+            return assemble(reader, address);
+        }
+    }
 
-        String[] tokens = line.toUpperCase().split(" ");
+    public static ProgramImage assemble(List<String> lines, int address) {
+        Pass pass = new Pass(address);
+        for (String line : lines)
+            pass.add(line);
 
-        boolean isVectorInst = isVectorInstruction(tokens);
-        return  isVectorInst ? getVectorInstrBinary(tokens) : getInstrBinary(tokens);
+        return pass.finish();
     }
 
-    private static int getInstrBinary(String[] tokens) {
-        int op = opMap.get(tokens[0]);
+    // Reads the source a line at a time, only the tokens are kept until the second pass
+    public static ProgramImage assemble(BufferedReader reader, int address) throws IOException {
+        Pass pass = new Pass(address);
+        for (String line = reader.readLine(); line != null; line = reader.readLine())
+            pass.add(line);
+
+        return pass.finish();
+    }
+
+    // The first pass, fed one line at a time, finish() runs the second
+    private static class Pass {
+        private final HashMap<String, Integer> labels = new HashMap<>();
+        private final ArrayList<Segment> segments = new ArrayList<>();
+        private final Segment text;
+        private Segment current;
+        private int lineNumber = 0;
+
+        public Pass(int address) {
+            text = new Segment(address, ProgramImage.TEXT);
+            segments.add(text);
+            current = text;
+        }
+
+        public void add(String line) {
+            lineNumber++;
+            String[] tokens = tokenize(line);
+            if (tokens.length == 0) return;
+
+            String first = tokens[0];
+            if (first.endsWith(":")) {
+                String label = first.substring(0, first.length() - 1);
+                if (!isLabel(label))
+                    throw error(lineNumber, "Bad label name " + label);
+                if (labels.put(label, current.address + current.size) != null)
+                    throw error(lineNumber, "Label " + label + " defined twice");
+
+                tokens = slice(tokens, 1);
+                if (tokens.length == 0) return;
+                first = tokens[0];
+            }
+
+            int words = 1;
+            switch (first) {
+                case ".TEXT":
+                    current = text;
+                    return;
+                case ".DATA":
+                    if (tokens.length != 2)
+                        throw error(lineNumber, ".data takes the address to load the segment at");
+                    current = new Segment(number(tokens[1], lineNumber), 0);
+                    segments.add(current);
+                    return;
+                case ".WORD":
+                    words = tokens.length - 1;
+                    break;
+                case ".VECTOR":
+                    words = tokens.length - 1;
+                    if (words > MAX_VECTOR)
+                        throw error(lineNumber, ".vector can hold at most " + MAX_VECTOR + " elements");
+                    break;
+                case ".FILL":
+                    if (tokens.length != 3)
+                        throw error(lineNumber, ".fill takes a count and a value");
+                    words = number(tokens[1], lineNumber);
+                    if (words < 0)
+                        throw error(lineNumber, "Negative .fill count");
+                    break;
+                default:
+                    if (first.startsWith("."))
+                        throw error(lineNumber, "Unknown directive " + first);
+            }
+
+            current.statements.add(new Statement(lineNumber, tokens, current.size));
+            current.size += words;
+            current.halted = first.equals("END") || first.equals("HALT");
+        }
+
+        public ProgramImage finish() {
+            // Programs that don't end with END stop with a HALT after their last instruction
+            if (!text.halted) {
+                text.statements.add(new Statement(lineNumber, new String[] { "HALT" }, text.size));
+                text.size++;
+            }
+
+            ProgramImage image = new ProgramImage(text.address);
+
+            for (Segment segment : segments) {
+                if (segment.size == 0 && segment != text) continue;
+
+                int[] words = new int[segment.size];
+                for (Statement statement : segment.statements) {
+                    try {
+                        emit(statement, segment.address + statement.offset, words);
+                    } catch (IllegalArgumentException e) {
+                        throw error(statement.lineNumber, e.getMessage());
+                    }
+                }
+
+                image.addSegment(segment.address, segment.flags, words);
+            }
+
+            return image;
+        }
+
+        private void emit(Statement statement, int address, int[] words) {
+            String[] tokens = statement.tokens;
+            int at = statement.offset;
+
+            switch (tokens[0]) {
+                case ".WORD":
+                case ".VECTOR":
+                    for (int i = 1; i < tokens.length; i++)
+                        words[at++] = value(tokens[i], labels);
+                    break;
+                case ".FILL":
+                    int count = parseNumber(tokens[1]);
+                    int value = value(tokens[2], labels);
+                    for (int i = 0; i < count; i++)
+                        words[at++] = value;
+                    break;
+                default:
+                    words[at] = encode(tokens, address, labels);
+            }
+        }
+    }
+
+    // Splits on spaces, tabs and commas and upper-cases, stopping at a ';' comment. No regexes, one pass over the line
+    private static String[] tokenize(String line) {
+        ArrayList<String> tokens = new ArrayList<>(4);
+        int length = line.length();
+        int start = -1;
+
+        for (int i = 0; i <= length; i++) {
+            char c = i < length ? line.charAt(i) : ' ';
+            if (c == ';') {
+                c = ' ';
+                length = i;
+            }
+
+            boolean separator = c == ' ' || c == '\t' || c == ',' || c == '\r';
+            if (!separator && start < 0) {
+                start = i;
+            } else if (separator && start >= 0) {
+                tokens.add(line.substring(start, i).toUpperCase());
+                start = -1;
+            }
+        }
+
+        // "SET FLAG" is the one mnemonic with a space in it
+        if (tokens.size() > 1 && tokens.get(0).equals("SET") && tokens.get(1).equals("FLAG")) {
+            tokens.remove(1);
+            tokens.set(0, "SET FLAG");
+        }
+
+        return tokens.toArray(new String[0]);
+    }
+
+    private static int encode(String[] tokens, int address, HashMap<String, Integer> labels) {
+        if (tokens[0].equals("END") || tokens[0].equals("HALT"))
+            return Instruction.HALT;
+
+        return isVectorInstruction(tokens) ? getVectorInstrBinary(tokens, labels) : getInstrBinary(tokens, address, labels);
+    }
+
+    private static int getInstrBinary(String[] tokens, int address, HashMap<String, Integer> labels) {
+        Integer opCode = opMap.get(tokens[0]);
+        if (opCode == null)
+            throw new IllegalArgumentException("Unknown instruction " + tokens[0]);
+
+        int op = opCode;
         int type = getType(op, tokens);
 
         int binary = 0;
@@ -28,18 +289,23 @@ public class Assembler {
         if (op == 7) { // Branching instructions
             if (tokens.length > 2) {
                 // Insert condition code
-                int cond = condMap.get(tokens[3]);
+                Integer cond = tokens.length > 3 && tokens[2].equals("IF") ? condMap.get(tokens[3]) : null;
+                if (cond == null)
+                    throw new IllegalArgumentException("Bad branch condition, expected IF EQ|NE|GT|GTE|LT|LTE");
                 binary = binary | (cond << 28);
             } else {
                 binary = binary | (Instruction.NO_COND << 28);
             }
 
+            // A label is turned into the offset from this branch
+            int offset = isLabel(tokens[1]) ? label(tokens[1], labels) - address : value(tokens[1], labels);
+
             // Insert sign bit
-            int s_bit = tokens[1].startsWith("-") ? 1 : 0;
+            int s_bit = offset < 0 ? 1 : 0;
             binary = binary | (s_bit << 22);
 
             // Insert branch offset
-            binary = binary | Integer.parseInt(tokens[1].replace("-", ""));
+            binary = binary | field(Math.abs(offset), 22, "Branch offset");
 
             return binary;
         }
@@ -47,72 +313,95 @@ public class Assembler {
         // Insert op code
         binary = binary | (op << 20);
 
-        int op1 = tokens.length < 2 ? -1 : Integer.parseInt(tokens[1].replaceAll("[^\\d.]", ""));
-        int op2 = tokens.length < 3 ? -1 : Integer.parseInt(tokens[2].replaceAll("[^\\d.]", ""));
-        int op3 = tokens.length < 4 ? -1 : Integer.parseInt(tokens[3].replaceAll("[^\\d.]", ""));
-
-        if (op == 12) { // Compare
+        int op1 = operand(tokens, 1, labels);
+        int op2 = operand(tokens, 2, labels);
+        int op3 = operand(tokens, 3, labels);
+
+        if (op == 15) { // Set vector length, SETVL rd r1 or SETVL rd imm
+            binary = binary | (field(op1, 4, "Register") << 15);
+            if (type == 0)
+                binary = binary | (field(op2, 4, "Register") << 11);
+            else
+                binary = binary | (field(op2, 8, "Immediate") << 3);
+        } else if (op == 12) { // Compare
             if (type == 0) {
-                binary = binary | (op1 << 11);
-                binary = binary | (op2 << 7);
+                binary = binary | (field(op1, 4, "Register") << 11);
+                binary = binary | (field(op2, 4, "Register") << 7);
             } else if (type == 3) {
-                binary = binary | (op1 << 11);
-                binary = binary | (op2 << 3);
+                binary = binary | (field(op1, 4, "Register") << 11);
+                binary = binary | (field(op2, 8, "Immediate") << 3);
             }
         } else {
             if (type == 0) {
-                binary = binary | (op1 << 15);
-                binary = binary | (op2 << 11);
-                binary = binary | (op3 << 7);
+                binary = binary | (field(op1, 4, "Register") << 15);
+                binary = binary | (field(op2, 4, "Register") << 11);
+                binary = binary | (field(op3, 4, "Register") << 7);
             } else if (type == 3) {
-                binary = binary | (op1 << 15);
-                binary = binary | (op2 << 11);
-                binary = binary | (op3 << 3);
+                binary = binary | (field(op1, 4, "Register") << 15);
+                binary = binary | (field(op2, 4, "Register") << 11);
+                binary = binary | (field(op3, 8, "Immediate") << 3);
             } else if (type == 5) {
-                binary = binary | (op1 << 15);
-                binary = binary | (op2 << 11);
+                binary = binary | (field(op1, 4, "Register") << 15);
+                binary = binary | (field(op2, 4, "Register") << 11);
             } else if (type == 6) {
-                binary = binary | (op1 << 15);
-                binary = binary | (op2 << 3);
+                binary = binary | (field(op1, 4, "Register") << 15);
+                binary = binary | (field(op2, 12, "Immediate") << 3);
             }
         }
 
         return binary;
     }
 
-    private static int getVectorInstrBinary(String[] tokens) {
-        int op = opMapV.get(tokens[0]);
+    private static int getVectorInstrBinary(String[] tokens, HashMap<String, Integer> labels) {
+        Integer opCode = opMapV.get(tokens[0]);
+        if (opCode == null)
+            throw new IllegalArgumentException("Unknown vector instruction " + tokens[0]);
+
+        int op = opCode;
         int type = getVectorType(op, tokens);
 
         int binary = 0;
         binary = binary | (type << 24);
         binary = binary | (op << 20);
 
-        int op1 = tokens.length < 2 ? -1 : Integer.parseInt(tokens[1].replaceAll("[^\\d.]", ""));
-        int op2 = tokens.length < 3 ? -1 : Integer.parseInt(tokens[2].replaceAll("[^\\d.]", ""));
-        int op3 = tokens.length < 4 ? -1 : Integer.parseInt(tokens[3].replaceAll("[^\\d.]", ""));
-        int op4 = tokens.length < 5 ? -1 : Integer.parseInt(tokens[4].replaceAll("[^\\d.]", ""));
+        int op1 = operand(tokens, 1, labels);
+        int op2 = operand(tokens, 2, labels);
+        int op3 = operand(tokens, 3, labels);
+        int op4 = operand(tokens, 4, labels);
 
         if (type == 8) {
-            binary = binary | (op1 << 15);
-            binary = binary | (op2 << 11);
+            binary = binary | (field(op1, 4, "Register") << 15);
+            binary = binary | (field(op2, 4, op == 7 ? "Appended value" : "Register") << 11);
+
+            // LOAD V0 R1 R2 is strided (element i at R1 + i * R2), LOAD V0 R1 V2 indexed (element i at R1 + V2[i])
+            if (op != 7 && tokens.length > 3 && (isRegister(tokens[3], 'R') || isRegister(tokens[3], 'V'))) {
+                int addressing = isRegister(tokens[3], 'R') ? DecodedInstruction.STRIDED : DecodedInstruction.INDEXED;
+                binary = binary | (addressing << 4) | field(op3, 4, "Register");
+                op3 = op4;
+            }
+
+            if (op3 != -1)
+                binary = binary | (field(op3, 5, "Vector length") << 6);
+        } else if (type == 9 && op >= 8) { // SUM R1 V2 [len], reductions have no second vector
+            binary = binary | (field(op1, 4, "Register") << 15);
+            binary = binary | (field(op2, 4, "Register") << 11);
 
             if (op3 != -1)
-                binary = binary | (op3 << 6);
+                binary = binary | (field(op3, 5, "Vector length") << 2);
         } else if (type == 9) {
-            binary = binary | (op1 << 15);
-            binary = binary | (op2 << 11);
-            binary = binary | (op3 << 7);
+            binary = binary | (field(op1, 4, "Register") << 15);
+            binary = binary | (field(op2, 4, "Register") << 11);
+            binary = binary | (field(op3, 4, "Register") << 7);
 
             if (op4 != -1)
-                binary = binary | (op4 << 2);
+                binary = binary | (field(op4, 5, "Vector length") << 2);
         } else if (type == 10) {
-            binary = binary | (op1 << 15);
-            binary = binary | (op2 << 11);
-            binary = binary | (op3 << 5);
+            binary = binary | (field(op1, 4, "Register") << 15);
+            binary = binary | (field(op2, 4, "Register") << 11);
+            binary = binary | (field(op3, 6, "Immediate") << 5);
 
             if (op4 != -1)
-                binary = binary | op4;
+                binary = binary | field(op4, 5, "Vector length");
         }
 
         return binary;
@@ -121,70 +410,147 @@ public class Assembler {
     private static int getType(int op, String[] tokens) {
         if (op == 7) // Branch instruction
             return 7;
-        else if (op == 13 || op == 14) // Load/Store instruction
-            return tokens[2].startsWith("R") ? 5 : 6;
-        else { // Data processing instruction
-            if (op == 12) {
-                return tokens[2].startsWith("R") ? 0 : 3;
-            }
 
-            return tokens[3].startsWith("R") ? 0 : 3;
-        }
+        int immediate = op == 13 || op == 14 || op == 12 || op == 15 ? 2 : 3; // Position of the register or immediate operand
+        if (tokens.length <= immediate)
+            throw new IllegalArgumentException(tokens[0] + " is missing operands");
+
+        if (op == 13 || op == 14) // Load/Store instruction
+            return isRegister(tokens[immediate], 'R') ? 5 : 6;
+        else // Data processing instruction
+            return isRegister(tokens[immediate], 'R') ? 0 : 3;
     }
 
     private static int getVectorType(int op, String[] tokens) {
         if (op == 13 || op == 14 || op == 7)
             return 8;
-        else
-            return tokens[3].startsWith("V") ? 9 : 10;
-    }
 
-    private static void setupHashMaps() {
-        opMap = new HashMap<>();
-        opMap.put("ADD", 0);
-        opMap.put("SUBTRACT", 1);
-        opMap.put("MULTIPLY", 2);
-        opMap.put("DIVIDE", 4);
-        opMap.put("MODULO", 8);
-        opMap.put("AND", 3);
-        opMap.put("OR", 5);
-        opMap.put("NOT", 9);
-        opMap.put("XOR", 10);
-        opMap.put("COMPARE", 12);
-        opMap.put("CMP", 12);
-        opMap.put("SET FLAG", 6);
-        opMap.put("SHIFT", 7);
-        opMap.put("SWAP", 11);
-        opMap.put("LOAD", 13);
-        opMap.put("STORE", 14);
-        opMap.put("BRANCH", 7);
-
-        opMapV = new HashMap<>();
-        opMapV.put("ADD", 0);
-        opMapV.put("SUBTRACT", 1);
-        opMapV.put("MULTIPLY", 2);
-        opMapV.put("DIVIDE", 4);
-        opMapV.put("LOAD", 13);
-        opMapV.put("STORE", 14);
-        opMapV.put("APPEND", 7);
+        if (op >= 8) // Reductions
+            return 9;
 
-        condMap = new HashMap<>();
-        condMap.put("EQ", 0);
-        condMap.put("NE", 1);
-        condMap.put("GT", 2);
-        condMap.put("GTE", 3);
-        condMap.put("LT", 4);
-        condMap.put("LTE", 5);
+        if (tokens.length < 4)
+            throw new IllegalArgumentException(tokens[0] + " is missing operands");
+        if (!isRegister(tokens[3], 'V') && (op == 3 || op == 5))
+            throw new IllegalArgumentException(tokens[0] + " takes two vectors");
+        return isRegister(tokens[3], 'V') ? 9 : 10;
     }
 
     private static boolean isVectorInstruction(String[] tokens) {
         for (int i = 1; i < tokens.length; i++)
-            if (tokens[i].startsWith("V") && !tokens[i].startsWith("VALAT"))
+            if (isRegister(tokens[i], 'V'))
                 return true;
 
         return false;
     }
 
+    // Register number, immediate or label value of the operand at index, -1 if the instruction doesn't have it
+    private static int operand(String[] tokens, int index, HashMap<String, Integer> labels) {
+        if (index >= tokens.length)
+            return -1;
+
+        String token = tokens[index];
+        if (isRegister(token, 'R') || isRegister(token, 'V'))
+            return digits(token, 1, token.length());
+
+        int value = value(token, labels);
+        if (value < 0)
+            throw new IllegalArgumentException("Negative immediate " + token);
+        return value;
+    }
+
+    // A number or a label's address
+    private static int value(String token, HashMap<String, Integer> labels) {
+        return isLabel(token) ? label(token, labels) : parseNumber(token);
+    }
+
+    private static int label(String token, HashMap<String, Integer> labels) {
+        Integer address = labels == null ? null : labels.get(token);
+        if (address == null)
+            throw new IllegalArgumentException("Unknown label " + token);
+
+        return address;
+    }
+
+    private static int number(String token, int lineNumber) {
+        try {
+            return parseNumber(token);
+        } catch (IllegalArgumentException e) {
+            throw error(lineNumber, e.getMessage());
+        }
+    }
+
+    private static int parseNumber(String token) {
+        boolean negative = token.startsWith("-");
+        int start = negative ? 1 : 0;
+        boolean hex = token.startsWith("0X", start);
+
+        long value = hex ? digits(token, start + 2, token.length(), 16) : digits(token, start, token.length(), 10);
+        return (int) (negative ? -value : value);
+    }
+
+    private static int digits(String token, int from, int to) {
+        return (int) digits(token, from, to, 10);
+    }
+
+    private static long digits(String token, int from, int to, int radix) {
+        if (from >= to)
+            throw new IllegalArgumentException("Bad number " + token);
+
+        long value = 0;
+        for (int i = from; i < to; i++) {
+            int digit = Character.digit(token.charAt(i), radix);
+            if (digit < 0 || value > 0xFFFFFFFFL)
+                throw new IllegalArgumentException("Bad number " + token);
+
+            value = value * radix + digit;
+        }
+
+        return value;
+    }
+
+    private static int field(int value, int bits, String what) {
+        if (value < 0 || value >= 1 << bits)
+            throw new IllegalArgumentException(what + " " + value + " doesn't fit in " + bits + " bits");
+
+        return value;
+    }
+
+    // R0-R15 or V0-V15 (just the letter and digits)
+    private static boolean isRegister(String token, char kind) {
+        if (token.length() < 2 || token.charAt(0) != kind)
+            return false;
+
+        for (int i = 1; i < token.length(); i++)
+            if (!Character.isDigit(token.charAt(i)))
+                return false;
+
+        return true;
+    }
+
+    // Labels start with a letter or '_' and aren't register names
+    private static boolean isLabel(String token) {
+        if (token.isEmpty() || !(Character.isLetter(token.charAt(0)) || token.charAt(0) == '_'))
+            return false;
+        if (isRegister(token, 'R') || isRegister(token, 'V'))
+            return false;
+
+        for (int i = 1; i < token.length(); i++)
+            if (!Character.isLetterOrDigit(token.charAt(i)) && token.charAt(i) != '_')
+                return false;
+
+        return true;
+    }
+
+    private static String[] slice(String[] tokens, int from) {
+        String[] rest = new String[tokens.length - from];
+        System.arraycopy(tokens, from, rest, 0, rest.length);
+        return rest;
+    }
+
+    private static IllegalArgumentException error(int lineNumber, String message) {
+        return new IllegalArgumentException("Line " + lineNumber + ": " + message);
+    }
+
     public static void main(String[] args) {
         System.out.println(toBinary("LOAD R0 0"));
         System.out.println(toBinary("ADD R0 R0 1"));
@@ -0,0 +1,377 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Supplier;
+
+// Host throughput of the simulator: whole programs (simulated instructions/s and cycles/s) and the hot paths under them.
+// Results are written in the JSON layout JMH uses (benchmark, mode, primaryMetric, secondaryMetrics), so runs can be diffed
+// with the usual JMH tooling. JMH itself can't be used here since it doesn't allow benchmarks in the default package.
+// Usage: java Benchmarks [--threaded] [--warmup n] [--iterations n] [--time ms] [--filter text] [--programs dir] [--out results.json]
+public class Benchmarks {
+    private static String programDir = "Programs";
+
+    private static int warmupIterations = 3;
+    private static int measurementIterations = 5;
+    private static long iterationMillis = 1000;
+    private static boolean threaded = false;
+    private static volatile int blackhole; // Keeps the JIT from dropping results nothing reads
+
+    // One call of a benchmark, ops is how many operations it did in nanos (and secondary a second count, e.g. cycles)
+    private static class Sample {
+        public long ops, secondary, nanos;
+
+        public Sample(long ops, long secondary, long nanos) {
+            this.ops = ops;
+            this.secondary = secondary;
+            this.nanos = nanos;
+        }
+    }
+
+    private static class Benchmark {
+        public final String name, unit, secondaryName, secondaryUnit;
+        public final Supplier<Sample> invoke;
+
+        public Benchmark(String name, String unit, String secondaryName, String secondaryUnit, Supplier<Sample> invoke) {
+            this.name = name;
+            this.unit = unit;
+            this.secondaryName = secondaryName;
+            this.secondaryUnit = secondaryUnit;
+            this.invoke = invoke;
+        }
+    }
+
+    private static class Result {
+        public final Benchmark benchmark;
+        public final double[] scores, secondaryScores;
+
+        public Result(Benchmark benchmark, double[] scores, double[] secondaryScores) {
+            this.benchmark = benchmark;
+            this.scores = scores;
+            this.secondaryScores = secondaryScores;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        String filter = null, outFile = "benchmark-results.json";
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--threaded":
+                    threaded = true;
+                    break;
+                case "--warmup":
+                    warmupIterations = Integer.parseInt(args[++i]);
+                    break;
+                case "--iterations":
+                    measurementIterations = Integer.parseInt(args[++i]);
+                    break;
+                case "--time":
+                    iterationMillis = Long.parseLong(args[++i]);
+                    break;
+                case "--filter":
+                    filter = args[++i];
+                    break;
+                case "--programs":
+                    programDir = args[++i];
+                    break;
+                case "--out":
+                    outFile = args[++i];
+                    break;
+                default:
+                    System.out.println("Usage: java Benchmarks [--threaded] [--warmup n] [--iterations n] [--time ms] [--filter text] [--programs dir] [--out results.json]");
+                    return;
+            }
+        }
+
+        Simulation.setVerbose(false);
+        System.out.println("Vector kernels: " + VectorKernels.get().getName());
+
+        ArrayList<Result> results = new ArrayList<>();
+        for (Benchmark benchmark : buildBenchmarks()) {
+            if (filter != null && !benchmark.name.contains(filter)) continue;
+
+            Result result = measure(benchmark);
+            results.add(result);
+            System.out.printf("%-40s %14.1f +- %.1f %s%n", benchmark.name, mean(result.scores), error(result.scores), benchmark.unit);
+        }
+
+        try (PrintWriter out = new PrintWriter(outFile)) {
+            out.println(toJson(results));
+        }
+        System.out.println("Results written to " + outFile);
+
+        System.exit(0);
+    }
+
+    private static List<Benchmark> buildBenchmarks() throws IOException {
+        ArrayList<Benchmark> benchmarks = new ArrayList<>();
+
+        // Whole programs, loading isn't timed
+        File[] programs = new File(programDir).listFiles((dir, name) -> name.endsWith(".txt"));
+        if (programs == null) {
+            System.out.println(programDir + " not found, run from the repository root or pass --programs dir");
+            System.exit(1);
+        }
+        Arrays.sort(programs);
+
+        Simulator simulator = new Simulator(false);
+        simulator.setStepped(!threaded);
+        Simulation.setListener(simulator);
+
+        for (File program : programs) {
+            String name = "program." + program.getName().replace(".txt", "");
+
+            benchmarks.add(new Benchmark(name, "instructions/s", "cycles", "cycles/s", () -> {
+                try {
+                    simulator.setup();
+                    simulator.loadInstructions(Simulator.PROGRAM_ADDRESS, program.getPath(), true, false);
+
+                    long start = System.nanoTime();
+                    long cycles = simulator.run(Simulator.PROGRAM_ADDRESS, true, true);
+                    long nanos = System.nanoTime() - start;
+
+                    return new Sample(simulator.getPipeline().getInstructionCount(), cycles, nanos);
+                } catch (IOException | InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }));
+        }
+
+        // Cache hit: the same line over and over
+        Memory hitRAM = new Memory(8000, 4, 100, false);
+        Cache hitCache = new Cache(16, hitRAM, false);
+        benchmarks.add(new Benchmark("cache.readHit", "ops/s", null, null, () -> {
+            long start = System.nanoTime();
+            for (int i = 0; i < 10000; i++)
+                while (hitCache.read("Bench", i & 3) == Memory.WAIT);
+            return new Sample(10000, 0, System.nanoTime() - start);
+        }));
+        benchmarks.add(new Benchmark("cache.writeHit", "ops/s", null, null, () -> {
+            long start = System.nanoTime();
+            for (int i = 0; i < 10000; i++)
+                while (hitCache.write("Bench", i & 3, i) == Memory.WAIT);
+            return new Sample(10000, 0, System.nanoTime() - start);
+        }));
+
+        // Cache miss: five lines of one set cycled through a four way set, so every access evicts
+        Memory missRAM = new Memory(8000, 4, 100, false);
+        Cache missCache = new Cache(16, missRAM, false);
+        benchmarks.add(new Benchmark("cache.readMiss", "ops/s", null, null, () -> {
+            long start = System.nanoTime();
+            for (int i = 0; i < 100; i++)
+                while (missCache.read("Bench", (i % 5) * 64) == Memory.WAIT);
+            return new Sample(100, 0, System.nanoTime() - start);
+        }));
+        // Writes don't allocate, so a cache nothing reads from never has the lines and every write misses
+        Memory writeMissRAM = new Memory(8000, 4, 100, false);
+        Cache writeMissCache = new Cache(16, writeMissRAM, false);
+        benchmarks.add(new Benchmark("cache.writeMiss", "ops/s", null, null, () -> {
+            long start = System.nanoTime();
+            for (int i = 0; i < 100; i++)
+                while (writeMissCache.write("Bench", (i % 5) * 64 + 1, i) == Memory.WAIT);
+            return new Sample(100, 0, System.nanoTime() - start);
+        }));
+
+        // RAM line reads including the polls the delay makes callers do
+        Memory lineRAM = new Memory(8000, 4, 100, false);
+        benchmarks.add(new Benchmark("memory.getLine", "ops/s", null, null, () -> {
+            long start = System.nanoTime();
+            for (int i = 0; i < 100; i++)
+                while (lineRAM.getLine("Bench", (i * 4) % 32000)[0] == Memory.WAIT);
+            return new Sample(100, 0, System.nanoTime() - start);
+        }));
+
+        // The same through the sparse RAM, spread over 100 pages a million words apart
+        PagedMemory pagedRAM = new PagedMemory(4, 100);
+        for (int i = 0; i < 100; i++)
+            pagedRAM.postBlock(i << 20, new int[]{i}, 1);
+        benchmarks.add(new Benchmark("memory.pagedGetLine", "ops/s", null, null, () -> {
+            long start = System.nanoTime();
+            for (int i = 0; i < 100; i++)
+                while (pagedRAM.getLine("Bench", i << 20)[0] == Memory.WAIT);
+            return new Sample(100, 0, System.nanoTime() - start);
+        }));
+
+        // Every program, assembled whole (labels and data directives need both passes)
+        ArrayList<List<String>> sources = new ArrayList<>();
+        int lineCount = 0;
+        for (File program : programs) {
+            List<String> source = Files.readAllLines(program.toPath());
+            sources.add(source);
+            lineCount += source.size();
+        }
+
+        ArrayList<Integer> instructionWords = new ArrayList<>();
+        for (List<String> source : sources)
+            for (int word : Assembler.assemble(source, Simulator.PROGRAM_ADDRESS).getSegments().get(0).words)
+                if (word != Instruction.HALT)
+                    instructionWords.add(word);
+
+        int[] words = new int[instructionWords.size()];
+        for (int i = 0; i < words.length; i++)
+            words[i] = instructionWords.get(i);
+
+        int lines = lineCount;
+        benchmarks.add(new Benchmark("assembler.assemble", "lines/s", null, null, () -> {
+            long start = System.nanoTime();
+            int sink = 0;
+            for (List<String> source : sources)
+                sink ^= Assembler.assemble(source, Simulator.PROGRAM_ADDRESS).getEntryPoint();
+            blackhole = sink;
+            return new Sample(lines, 0, System.nanoTime() - start);
+        }));
+        benchmarks.add(new Benchmark("instruction.decode", "ops/s", null, null, () -> {
+            long start = System.nanoTime();
+            int sink = 0;
+            for (int i = 0; i < words.length; i++) {
+                Instruction instruction = new Instruction(i);
+                instruction.setWord(words[i]);
+                instruction.decode();
+                sink ^= instruction.getType();
+            }
+            blackhole = sink;
+            return new Sample(words.length, 0, System.nanoTime() - start);
+        }));
+
+        // Host side of the vector data processing instructions on long vectors, elements/s. The .scalar ones are the
+        // plain loops, the others whatever VectorKernels.get() picked when that isn't them (see SimdVectorKernels).
+        // No divide, both run the same loop for it
+        int[] a = new int[4096], b = new int[4096], dest = new int[4096];
+        for (int i = 0; i < a.length; i++) {
+            a[i] = i * 31 + 7;
+            b[i] = (i % 97) + 1;
+        }
+
+        ArrayList<VectorKernels> kernelSets = new ArrayList<>();
+        kernelSets.add(new VectorKernels());
+        if (VectorKernels.get().getClass() != VectorKernels.class)
+            kernelSets.add(VectorKernels.get());
+
+        for (VectorKernels kernels : kernelSets) {
+            String suffix = kernels.getClass() == VectorKernels.class ? ".scalar" : "";
+            benchmarks.add(new Benchmark("vector.lanewise" + suffix, "elements/s", null, null, () -> {
+                long start = System.nanoTime();
+                kernels.lanewise(0, a, b, dest, dest.length);
+                kernels.lanewise(2, dest, 3, dest, dest.length);
+                blackhole = dest[dest.length - 1];
+                return new Sample(2L * dest.length, 0, System.nanoTime() - start);
+            }));
+            benchmarks.add(new Benchmark("vector.dot" + suffix, "elements/s", null, null, () -> {
+                long start = System.nanoTime();
+                blackhole = kernels.dot(a, b, a.length);
+                return new Sample(a.length, 0, System.nanoTime() - start);
+            }));
+        }
+
+        return benchmarks;
+    }
+
+    // Warmup iterations are thrown away, each measured iteration calls the benchmark until iterationMillis have passed
+    private static Result measure(Benchmark benchmark) {
+        for (int i = 0; i < warmupIterations; i++)
+            iteration(benchmark);
+
+        double[] scores = new double[measurementIterations];
+        double[] secondaryScores = new double[measurementIterations];
+        for (int i = 0; i < measurementIterations; i++) {
+            Sample total = iteration(benchmark);
+            scores[i] = total.ops * 1e9 / total.nanos;
+            secondaryScores[i] = total.secondary * 1e9 / total.nanos;
+        }
+
+        return new Result(benchmark, scores, secondaryScores);
+    }
+
+    private static Sample iteration(Benchmark benchmark) {
+        Sample total = new Sample(0, 0, 0);
+        long end = System.nanoTime() + iterationMillis * 1000000;
+
+        while (System.nanoTime() < end) {
+            Sample sample = benchmark.invoke.get();
+            total.ops += sample.ops;
+            total.secondary += sample.secondary;
+            total.nanos += sample.nanos;
+        }
+
+        return total;
+    }
+
+    private static double mean(double[] scores) {
+        double sum = 0;
+        for (double score : scores)
+            sum += score;
+        return sum / scores.length;
+    }
+
+    // Half width of the 99.9% confidence interval, same as the scoreError JMH reports
+    private static double error(double[] scores) {
+        int n = scores.length;
+        if (n < 2) return Double.NaN;
+
+        double m = mean(scores), variance = 0;
+        for (double score : scores)
+            variance += (score - m) * (score - m);
+        variance /= n - 1;
+
+        // Student's t at 0.9995 for n - 1 degrees of freedom, close to the normal value past 10
+        double[] t = { 636.62, 31.599, 12.924, 8.610, 6.869, 5.959, 5.408, 5.041, 4.781, 4.587 };
+        double tValue = n - 1 <= t.length ? t[n - 2] : 3.291 + 1.296 * t.length / (n - 1);
+
+        return tValue * Math.sqrt(variance / n);
+    }
+
+    private static String toJson(List<Result> results) {
+        StringBuilder sb = new StringBuilder("[\n");
+
+        for (int r = 0; r < results.size(); r++) {
+            Result result = results.get(r);
+            Benchmark benchmark = result.benchmark;
+
+            sb.append("    {\n");
+            sb.append("        \"benchmark\" : \"Benchmarks.").append(benchmark.name).append("\",\n");
+            sb.append("        \"mode\" : \"thrpt\",\n");
+            sb.append("        \"threads\" : 1,\n");
+            sb.append("        \"forks\" : 1,\n");
+            sb.append("        \"jdkVersion\" : \"").append(System.getProperty("java.version")).append("\",\n");
+            sb.append("        \"vmName\" : \"").append(System.getProperty("java.vm.name")).append("\",\n");
+            sb.append("        \"params\" : {\n");
+            sb.append("            \"engine\" : \"").append(threaded ? "threaded" : "stepped").append("\"\n");
+            sb.append("        },\n");
+            sb.append("        \"warmupIterations\" : ").append(warmupIterations).append(",\n");
+            sb.append("        \"warmupTime\" : \"").append(iterationMillis).append(" ms\",\n");
+            sb.append("        \"measurementIterations\" : ").append(measurementIterations).append(",\n");
+            sb.append("        \"measurementTime\" : \"").append(iterationMillis).append(" ms\",\n");
+            sb.append("        \"primaryMetric\" : ");
+            appendMetric(sb, result.scores, benchmark.unit);
+            sb.append(",\n");
+            sb.append("        \"secondaryMetrics\" : {");
+            if (benchmark.secondaryName != null) {
+                sb.append("\n            \"").append(benchmark.secondaryName).append("\" : ");
+                appendMetric(sb, result.secondaryScores, benchmark.secondaryUnit);
+                sb.append("\n        ");
+            }
+            sb.append("}\n");
+            sb.append(r == results.size() - 1 ? "    }\n" : "    },\n");
+        }
+
+        return sb.append("]").toString();
+    }
+
+    private static void appendMetric(StringBuilder sb, double[] scores, String unit) {
+        double score = mean(scores), error = error(scores);
+
+        sb.append("{ \"score\" : ").append(score);
+        sb.append(", \"scoreError\" : ").append(Double.isNaN(error) ? "\"NaN\"" : String.valueOf(error));
+        sb.append(", \"scoreConfidence\" : [ ").append(score - (Double.isNaN(error) ? 0 : error)).append(", ")
+                .append(score + (Double.isNaN(error) ? 0 : error)).append(" ]");
+        sb.append(", \"scoreUnit\" : \"").append(unit).append("\"");
+        sb.append(", \"rawData\" : [ [ ");
+        for (int i = 0; i < scores.length; i++)
+            sb.append(i == 0 ? "" : ", ").append(scores[i]);
+        sb.append(" ] ] }");
+    }
+}
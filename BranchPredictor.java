@@ -0,0 +1,88 @@
+import java.util.Arrays;
+
+// Guesses whether a branch is taken when Fetch sees it, so Fetch can go on down the predicted path instead of waiting
+// for the branch to resolve in Memory Access. target is the branch's target from the BTB. update() gets the real
+// outcome once the branch resolves (history is only updated then, never speculatively)
+public interface BranchPredictor {
+    boolean predict(int pc, int target);
+
+    void update(int pc, boolean taken);
+
+    // btfn, bimodal or gshare, the tables have 2^indexBits counters
+    static BranchPredictor create(String name, int indexBits) {
+        switch (name.toLowerCase()) {
+            case "btfn":
+                return new BtfnPredictor();
+            case "bimodal":
+                return new BimodalPredictor(indexBits);
+            case "gshare":
+                return new GsharePredictor(indexBits);
+            default:
+                throw new IllegalArgumentException("Unknown branch predictor: " + name);
+        }
+    }
+}
+
+// Static backward taken, forward not taken: loops branch back, so backward branches are guessed taken
+class BtfnPredictor implements BranchPredictor {
+    @Override
+    public boolean predict(int pc, int target) {
+        return target <= pc;
+    }
+
+    @Override
+    public void update(int pc, boolean taken) { }
+}
+
+// One 2 bit saturating counter per branch address (aliased by the low address bits), 2 and 3 predict taken
+class BimodalPredictor implements BranchPredictor {
+    protected final byte[] counters;
+    protected final int mask;
+
+    public BimodalPredictor(int indexBits) {
+        if (indexBits < 0 || indexBits > 24)
+            throw new IllegalArgumentException("Predictor index bits have to be 0-24: " + indexBits);
+
+        counters = new byte[1 << indexBits];
+        mask = counters.length - 1;
+        Arrays.fill(counters, (byte) 1); // Weakly not taken
+    }
+
+    protected int index(int pc) {
+        return pc & mask;
+    }
+
+    @Override
+    public boolean predict(int pc, int target) {
+        return counters[index(pc)] >= 2;
+    }
+
+    @Override
+    public void update(int pc, boolean taken) {
+        int i = index(pc);
+        if (taken && counters[i] < 3)
+            counters[i]++;
+        else if (!taken && counters[i] > 0)
+            counters[i]--;
+    }
+}
+
+// Bimodal counters indexed by the branch address XORed with the outcomes of the last branches
+class GsharePredictor extends BimodalPredictor {
+    private int history;
+
+    public GsharePredictor(int indexBits) {
+        super(indexBits);
+    }
+
+    @Override
+    protected int index(int pc) {
+        return (pc ^ history) & mask;
+    }
+
+    @Override
+    public void update(int pc, boolean taken) {
+        super.update(pc, taken);
+        history = ((history << 1) | (taken ? 1 : 0)) & mask;
+    }
+}
@@ -0,0 +1,44 @@
+import java.util.Arrays;
+
+// Direct mapped table of the targets taken branches jumped to, looked up by the branch's address in Fetch.
+// A branch that misses is fetched past as if not taken, whatever the predictor says
+public class BranchTargetBuffer {
+    private final int[] tags, targets;
+    private final int mask;
+    private long lookups = 0, misses = 0;
+
+    public BranchTargetBuffer(int entries) {
+        if (entries < 1 || (entries & (entries - 1)) != 0)
+            throw new IllegalArgumentException("BTB entries have to be a power of two: " + entries);
+
+        tags = new int[entries];
+        targets = new int[entries];
+        mask = entries - 1;
+        Arrays.fill(tags, -1);
+    }
+
+    // The target the branch at pc last jumped to, -1 if it isn't in the buffer
+    public int lookup(int pc) {
+        lookups++;
+        int i = pc & mask;
+        if (tags[i] == pc)
+            return targets[i];
+
+        misses++;
+        return -1;
+    }
+
+    public void update(int pc, int target) {
+        int i = pc & mask;
+        tags[i] = pc;
+        targets[i] = target;
+    }
+
+    public long getLookups() {
+        return lookups;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+}
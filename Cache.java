@@ -4,374 +4,734 @@ import javafx.collections.ObservableList;
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Observable;
 
+// Set associative write back cache. The address is split into | tag | set | offset | with shifts and masks,
+// so the number of sets and the line length (in words) have to be powers of two.
+// ways = 1 gives a direct mapped cache and numSets = 1 a fully associative one
 public class Cache extends Memory {
 
-    private final Memory nextMemory;
+    // How a cache's contents relate to the caches above it (the ones that fill from it).
+    // INCLUSIVE evicting a line also invalidates it above, EXCLUSIVE only holds lines evicted from above
+    // and hands a line over (dropping its own copy) when one above misses on it, NON_INCLUSIVE does neither
+    public enum Inclusion { INCLUSIVE, EXCLUSIVE, NON_INCLUSIVE }
 
+    private final Memory nextMemory;
+    private final int hitLatency; // Cycles a tag lookup takes, hit or miss
+    private Inclusion inclusion = Inclusion.NON_INCLUSIVE;
+    private final ArrayList<Cache> upperCaches = new ArrayList<>();
+    private final ArrayList<Access> missing = new ArrayList<>(); // Accesses that paid the lookup and wait on the next memory
+    private long hits = 0, misses = 0, mergedMisses = 0, mshrStalls = 0;
+    private String name = "Cache";
+
+    // Miss status holding registers, a non-blocking cache tracks each line it is fetching in one and
+    // merges later misses on that line into it. None means the cache blocks on a miss (the default)
+    private Mshr[] mshrs = new Mshr[0];
+    private WriteBuffer writeBuffer = null;
+
+    private final int numSets, ways, lineLength;
+    private final int offsetBits, setBits, offsetMask, setMask;
+
+    // Per line state, set s holds lines s * ways to s * ways + ways - 1
     private final int[] tags;
-    private final int[][] lru;
     private final boolean[] dirty;
     private final boolean[] valid;
+    private final ReplacementPolicy policy;
     public ObservableList<LineData> lineData;
 
     //Cache lines need to be multiples of 4
     public Cache(int numLines, Memory nextMemory) {
-        super(numLines, 4, 0);//Line length might change in the future
-        this.nextMemory = nextMemory;
+        this(numLines, nextMemory, true);
+    }
+
+    public Cache(int numLines, Memory nextMemory, boolean showUI) {
+        this(numLines / 4, 4, 4, nextMemory, showUI);
+    }
+
+    public Cache(int numSets, int ways, int lineLength, Memory nextMemory) {
+        this(numSets, ways, lineLength, nextMemory, true);
+    }
+
+    public Cache(int numSets, int ways, int lineLength, Memory nextMemory, boolean showUI) {
+        this(numSets, ways, lineLength, ReplacementPolicy.create("lru", numSets, ways), nextMemory, showUI);
+    }
+
+    public Cache(int numSets, int ways, int lineLength, ReplacementPolicy policy, Memory nextMemory, boolean showUI) {
+        this(numSets, ways, lineLength, 0, policy, nextMemory, showUI);
+    }
 
+    public Cache(int numSets, int ways, int lineLength, int hitLatency, ReplacementPolicy policy, Memory nextMemory, boolean showUI) {
+        super(checkGeometry(numSets, ways, lineLength), lineLength, hitLatency, showUI);
+        this.nextMemory = nextMemory;
+        this.hitLatency = hitLatency;
+        this.policy = policy;
+        this.numSets = numSets;
+        this.ways = ways;
+        this.lineLength = lineLength;
+
+        offsetBits = Integer.numberOfTrailingZeros(lineLength);
+        setBits = Integer.numberOfTrailingZeros(numSets);
+        offsetMask = lineLength - 1;
+        setMask = numSets - 1;
+
+        int numLines = numSets * ways;
         tags = new int[numLines];
-        lru = new int[4][numLines/4];
         dirty = new boolean[numLines];//dirty bit per line
         valid = new boolean[numLines];//line based valid bit is acceptable because the whole line is pushed out or pushed in the cache at the same time
 
         ArrayList<LineData> lineArrayList = new ArrayList<>();
 
-        for (int i = 0; i < 4;i++){
-            Arrays.fill(lru[i], -1);
-        }
-
         for (int i = 0; i < numLines; i++) {
             tags[i] = -1;
-            valid[i] = false;
-            dirty[i] = false;
 
-            lineArrayList.add(new LineData(-1, -1, -1, -1, -1, -1));
+            if (showUI)
+                lineArrayList.add(new LineData(policy.state(i / ways, i % ways), -1, -1, -1, -1, -1));
         }
-        lineData = FXCollections.observableList(lineArrayList);
+        if (showUI)
+            lineData = FXCollections.observableList(lineArrayList);
+    }
+
+    private static int checkGeometry(int numSets, int ways, int lineLength) {
+        if (numSets < 1 || Integer.bitCount(numSets) != 1)
+            throw new IllegalArgumentException("Number of sets has to be a power of two: " + numSets);
+        if (lineLength < 1 || Integer.bitCount(lineLength) != 1)
+            throw new IllegalArgumentException("Line length has to be a power of two: " + lineLength);
+        if (ways < 1)
+            throw new IllegalArgumentException("Cache needs at least one way: " + ways);
 
+        return numSets * ways;
     }
 
     @Override
     public int read(String callingFrom, int address) {
-        int offset = address % 4;
-        int tag = address - offset; //getting start of the line
-        int tagLoc = -1;
-
-        //Finding the set of the address
-        int set = (address/16) % 4; //Setting set to cycle of 16 words
-
-        // Check if tag is in cache
-        for (int i = set * 4; i < (set * 4) + lru[set].length; i++) {
-            if (tags[i] == tag) {
-                tagLoc = i;
-                break;
-            }
-        }
+        drainWriteBuffer();
+        int slot = lookup(callingFrom, address);
+        if (slot < 0)
+            return Memory.WAIT;
+
+        return getCacheLine(slot)[address & offsetMask];
+    }
+
+    //for debugging
+    public int instrRead(int PC,String name){
+        return nextMemory.instrRead(PC,name);
+    }
 
-        if (tagLoc >= 0) { // Cache hit
-            // Read word from cache in location of tag
+    // Returns a copy of the whole cache line holding address
+    @Override
+    public int[] getLine(String callingFrom, int address){
+        drainWriteBuffer();
+        int slot = lookup(callingFrom, address);
+        if (slot < 0)
+            return new int[]{Memory.WAIT};
 
-            if (!valid[(tagLoc)]){
-                //If valid bit is set to invlaid and tag exists then treat it as a miss
-                System.out.println("Invalid Bit encountered");
-                int[] line = nextMemory.getLine(callingFrom, address);
+        return getCacheLine(slot).clone();
+    }
 
-                if (line[0] == Memory.WAIT)
-                    return Memory.WAIT;
-                // address added for writeback in case of dirty bit found on 1
-                writeToCache(tag, line, address, callingFrom, false);
-                return line[offset];
-            }
+    @Override
+    public int[] getBlock(String callingFrom, int address, int count) {
+        drainWriteBuffer();
+        if (mshrs.length > 0) { // Start every missing line before waiting on any of them
+            boolean ready = true;
+            for (int lineStart = address & ~offsetMask; lineStart < address + count; lineStart += lineLength)
+                if (lookup(callingFrom, Math.max(lineStart, address)) < 0)
+                    ready = false;
+
+            if (!ready)
+                return new int[]{Memory.WAIT};
+        }
 
-            if (lru[set][tagLoc%4] != 0) {
-                for (int i = 0; i < lru[set].length; i++) { // Update LRU (0 for nextLoc, +1 for everything else)
-                    if(lru[set][i] != -1) {
-                        lru[set][i] = (tagLoc % 4 == i) ? 0 : ((tags[i + (set * 4)] == 0 && !valid[i + (set * 4)]) ? -1 : lru[set][i] + 1);
-                    }
-                    lineData.get(i+(set*4)).setLru(lru[set][i]);
-                }
-            }
+        int[] block = new int[count];
 
-            return super.read(callingFrom, tagLoc * 4 + offset);
-        } else { // Cache miss
-            // Read from next memory, wait if needed
-            int[] line = nextMemory.getLine(callingFrom, address);
+        for (int done = 0; done < count; ) {
+            // Already looked up above, but a later line's fill can evict an earlier one from the same set
+            int slot = mshrs.length > 0 ? find(address + done) : lookup(callingFrom, address + done);
+            if (slot < 0)
+                return new int[]{Memory.WAIT};
 
-            if (line[0] == Memory.WAIT)
-                return Memory.WAIT;
-            // address added for writeback in case of dirty bit found on 1
-            writeToCache(tag, line, address, callingFrom, false);
-            return line[offset];
+            int offset = (address + done) & offsetMask;
+            int n = Math.min(count - done, lineLength - offset);
+            System.arraycopy(getCacheLine(slot), offset, block, done, n);
+            done += n;
         }
-    }
 
-    //for debugging
-    public int instrRead(int PC,String name){
-        return nextMemory.instrRead(PC,name);
+        return block;
     }
 
-    public void writeToCache(int tag, int[] line, int address, String callingFrom, boolean isDirty) {
-        int nextLoc = -1;
+    // Write hits stay in the cache until the line is evicted, write misses go straight to the next memory (no allocate)
+    @Override
+    public int write(String callingFrom, int address, int val) {
+        drainWriteBuffer();
+        int slot = find(address);
+        if (lookupWait(callingFrom, address, slot < 0))
+            return Memory.WAIT;
+
+        if (slot < 0) {
+            int out = bufferWrites()
+                    ? (writeBuffer.write(address, new int[]{val}, 0, 1, false) ? 1 : Memory.WAIT)
+                    : nextMemory.write(callingFrom, address, val);
+            if (out != Memory.WAIT)
+                missDone(callingFrom, address);
+            return out;
+        }
 
-        //Finding the set of the address
-        int set = (address / 16)%4; //Setting set to cycle of 16 words
+        hits++;
+        touch(slot);
+        writeSingleValueInCache(slot, address & offsetMask, val);
+        dirty[slot] = true;
+        refreshLineData(slot);
 
-        //Setting maxLRULoc to the start of the set
-        int maxLRULoc = set*4;
+        return 1;
+    }
 
-        // Look for empty spot and find least recently used full spot
-        for (int i = set*4; i < (set*4)+lru[set].length; i++)
-            if (tags[i] == -1 && !valid[i]) {
-                nextLoc = i;
-                break;
-            } else if (lru[set][i%4] > lru[set][maxLRULoc%4])
-                maxLRULoc = i;
+    @Override
+    public int writeBlock(String callingFrom, int address, int[] values, int count) {
+        return writeWords(callingFrom, address, values, null, count);
+    }
 
+    @Override
+    public int writeMasked(String callingFrom, int address, int[] values, boolean[] written) {
+        return writeWords(callingFrom, address, values, written, values.length);
+    }
 
-        if (nextLoc == -1) // Cache is full, take LRU
-            nextLoc = maxLRULoc;
+    // Writes count values from address onwards, only the ones marked written unless written is null
+    private int writeWords(String callingFrom, int address, int[] values, boolean[] written, int count) {
+        drainWriteBuffer();
+        for (int done = 0; done < count; ) {
+            int offset = (address + done) & offsetMask;
+            int n = Math.min(count - done, lineLength - offset);
+            int slot = find(address + done);
 
-        // Checking the dirty bits and writing back to New Memory if the bit is true
-        if (dirty[nextLoc]){
-            int[] oldLine = super.getLine(callingFrom, nextLoc * 4);
-            int out = Memory.WAIT;
+            if (lookupWait(callingFrom, address + done, slot < 0))
+                return Memory.WAIT;
 
-            System.out.println("Trying to writeback line to memory at address " + (tags[nextLoc]));
-            while (out == Memory.WAIT) {
-                out = nextMemory.writeLine(callingFrom, tags[nextLoc] / 4, oldLine);
-                System.out.println("Cache returned " + (out == Memory.WAIT ? "WAIT" : ("" + out)));
+            if (slot < 0) {
+                int out;
+                if (bufferWrites())
+                    out = writeBuffer.write(address + done, values, written, done, n, false) ? 1 : Memory.WAIT;
+                else if (written == null)
+                    out = nextMemory.writeBlock(callingFrom, address + done, Arrays.copyOfRange(values, done, done + n), n);
+                else
+                    out = nextMemory.writeMasked(callingFrom, address + done, Arrays.copyOfRange(values, done, done + n), Arrays.copyOfRange(written, done, done + n));
+                if (out == Memory.WAIT)
+                    return Memory.WAIT;
+                missDone(callingFrom, address + done);
+            } else {
+                hits++;
+                touch(slot);
+                int[] line = getCacheLine(slot);
+                for (int i = 0; i < n; i++)
+                    if (written == null || written[done + i])
+                        line[offset + i] = values[done + i];
+                dirty[slot] = true;
+                refreshLineData(slot);
             }
+
+            done += n;
         }
 
-        // Set tag and write line to cache in chosen location
-        tags[nextLoc] = tag;
-        valid[nextLoc] = true; // Setting the new cacheline as valid
+        return 1;
+    }
 
-        writeLine(callingFrom, nextLoc, line);
-        lineData.set(nextLoc, new LineData(0, tag, line[0], line[1], line[2], line[3]));
-        lineData.get(nextLoc).v.set(1);
+    // Returns the line holding address after marking it used, filling it from the next memory on a miss.
+    // -1 means this cache or the next memory asked to wait
+    private int lookup(String callingFrom, int address) {
+        int slot = find(address);
+        if (lookupWait(callingFrom, address, slot < 0))
+            return -1;
+
+        if (slot >= 0) {
+            hits++;
+            touch(slot);
+            return slot;
+        }
 
-        //Setting the dbits on the cache line, this works because we will just write a whole line when writing a single word in the cache
-        dirty[nextLoc] = isDirty;
-        lineData.get(nextLoc).setDirty(isDirty ? 1 : 0);
+        if (mshrs.length > 0)
+            return missNonBlocking(callingFrom, address);
 
-        for (int i = 0; i < lru[set].length; i++) { // Update LRU (0 for nextLoc, +1 for everything else)
-            if(lru[set][i] != -1) {
-                lru[set][i] = (nextLoc % 4 == i) ? 0 : ((tags[i + (set * 4)] == 0 && !valid[i + (set * 4)]) ? -1 : lru[set][i] + 1);
-            }
-            if( i == nextLoc%4){
-                lru[set][i] = 0;
-            }
-            lineData.get(i+(set*4)).setLru(lru[set][i]);
-        }
+        slot = fill(callingFrom, address);
+        if (slot >= 0)
+            missDone(callingFrom, address);
 
+        return slot;
     }
 
-    //Direct Write to cache
-    public void directWrite(int tag, int[] line, int address, String callingFrom, boolean isDirty){
-        int tagLoc = -1;
+    // The tag lookup takes hitLatency cycles. A miss pays it once, the polls after that only wait on the next memory
+    private boolean lookupWait(String callingFrom, int address, boolean miss) {
+        if (hitLatency == 0)
+            return false;
+
+        if (!miss)
+            return !remove(missing, callingFrom, address) && needsToWait(callingFrom, address);
 
-        //Finding the set of the address
-        int set = (address / 16)%4; //Setting set to cycle of 16 words
+        if (indexOf(missing, callingFrom, address) >= 0)
+            return false;
+        if (needsToWait(callingFrom, address))
+            return true;
 
-        // Check if tag is in cache
-        for (int i = set * 4; i < (set * 4) + lru[set].length; i++) {
-            if (tags[i] == tag) {
-                tagLoc = i;
-                break;
+        missing.add(new Access(callingFrom, address));
+        return false;
+    }
+
+    private void missDone(String callingFrom, int address) {
+        misses++;
+        if (hitLatency > 0)
+            remove(missing, callingFrom, address);
+    }
+
+    // Returns the line holding address, or -1 if it isn't cached
+    private int find(int address) {
+        int tag = address >>> (offsetBits + setBits);
+        int first = ((address >>> offsetBits) & setMask) * ways;
+
+        for (int i = first; i < first + ways; i++)
+            if (valid[i] && tags[i] == tag)
+                return i;
+
+        return -1;
+    }
+
+    // Finds or allocates the MSHR for the line and polls the next memory for it once, -1 until the line is in.
+    // Every access waiting on the line polls the same request, so whichever polls first once it's ready installs it
+    private int missNonBlocking(String callingFrom, int address) {
+        int lineAddress = address & ~offsetMask;
+        Mshr mshr = null, free = null;
+
+        for (Mshr m : mshrs) {
+            if (m.lineAddress == lineAddress)
+                mshr = m;
+            else if (m.lineAddress == -1 && free == null)
+                free = m;
+        }
+
+        if (mshr == null) {
+            if (free == null) { // Every MSHR is busy, the miss can't even start
+                mshrStalls++;
+                Simulation.stallCycle();
+                return -1;
             }
+
+            mshr = free;
+            mshr.lineAddress = lineAddress;
+            mshr.requesters.clear();
+            mshr.requesters.add(new Access(callingFrom, address));
+            misses++;
+        } else if (indexOf(mshr.requesters, callingFrom, address) < 0) { // Another access merged into the miss
+            mshr.requesters.add(new Access(callingFrom, address));
+            mergedMisses++;
         }
 
-        if (tagLoc >= 0) {
-            lineData.set(tagLoc, new LineData(0, tag, line[0], line[1], line[2], line[3]));
+        boolean[] claimedDirty = new boolean[1];
+        int[] line = fetchLine(name + " MSHR", lineAddress, claimedDirty);
+        if (line[0] == Memory.WAIT)
+            return -1;
 
-            // Update LRU (0 for tagLoc, +1 for everything else smaller than tagLoc(original val))
-            int prevLocVal = lru[set][tagLoc % 4];
-            for (int i = 0; i < lru[set].length; i++) {
-                if (i == tagLoc % lru[set].length) {
-                    lru[set][i] = 0;
-                } else if (lru[set][i] < prevLocVal) {
-                    lru[set][i] += 1;
-                }
+        int slot = victim((address >>> offsetBits) & setMask);
+        if (valid[slot])
+            evict(callingFrom, slot);
 
-                lineData.get(i+(set*4)).setLru(lru[set][i]);
-            }
+        install(slot, address, line, claimedDirty[0]);
+        mshr.lineAddress = -1;
+        if (hitLatency > 0)
+            remove(missing, callingFrom, address);
 
-            //Checking the dirty bits and writing back to Next Memory if the bit is true
-            if (dirty[tagLoc]) {
-                int[] oldLine = super.getLine("", tagLoc * 4);
-                int out = Memory.WAIT;
-                System.out.println("Trying to writeback line to memory at address " + (tag));
-                while (out == Memory.WAIT) {
-                    out = nextMemory.writeLine(callingFrom, (tag / 4), oldLine);
-                    System.out.println("Cache returned " + (out == Memory.WAIT ? "WAIT" : ("" + out)));
-                }
-            }
+        return slot;
+    }
+
+    private int fill(String callingFrom, int address) {
+        boolean[] claimedDirty = new boolean[1];
+        int[] line = fetchLine(callingFrom, address & ~offsetMask, claimedDirty);
+        if (line[0] == Memory.WAIT)
+            return -1;
+
+        int slot = victim((address >>> offsetBits) & setMask);
+        if (valid[slot])
+            evict(callingFrom, slot);
+
+        install(slot, address, line, claimedDirty[0]);
+        return slot;
+    }
+
+    // The line from the next memory (handed over if that's an exclusive cache), with any writes still in the
+    // write buffer on top. Lines the buffer holds whole don't go to the next memory at all
+    private int[] fetchLine(String callingFrom, int lineAddress, boolean[] claimedDirty) {
+        if (exclusiveNext())
+            return ((Cache) nextMemory).claimBlock(callingFrom, lineAddress, lineLength, claimedDirty);
+        if (!bufferWrites())
+            return nextMemory.getBlock(callingFrom, lineAddress, lineLength);
+
+        int[] line = writeBuffer.readLine(lineAddress);
+        if (line != null)
+            return line;
 
-            writeLine(callingFrom, tagLoc, line);
-            tags[tagLoc] = tag;
+        line = nextMemory.getBlock(callingFrom, lineAddress, lineLength);
+        if (line[0] != Memory.WAIT)
+            writeBuffer.overlay(lineAddress, line);
 
-            valid[tagLoc] = true; // Setting the new cacheline as valid
-            lineData.get(tagLoc).v.set(1);
+        return line;
+    }
 
-            //Setting the dbits on the cache line, this works because we will just write a whole line when writing a single word in the cache
-            dirty[tagLoc] = isDirty;
-            lineData.get(tagLoc).setDirty(isDirty ? 1 : 0);
-        } else {
-            writeToCache(tag, line, address, callingFrom, isDirty);
+    private void install(int slot, int address, int[] line, boolean isDirty) {
+        System.arraycopy(line, 0, getCacheLine(slot), 0, lineLength);
+        tags[slot] = address >>> (offsetBits + setBits);
+        valid[slot] = true; // Setting the new cacheline as valid
+        dirty[slot] = isDirty;
+        policy.fill(slot / ways, slot % ways);
+        refreshLru(slot / ways);
+        refreshLineData(slot);
+    }
+
+    // Frees slot: an inclusive cache first takes the line back from the caches above, then the line is written back
+    // if dirty, or handed down whole if the next cache is exclusive.
+    // A non-blocking cache can't spin on the next memory, so it posts the line down without waiting
+    private void evict(String callingFrom, int slot) {
+        if (inclusion == Inclusion.INCLUSIVE)
+            backInvalidate(slot);
+
+        if (exclusiveNext()) {
+            Cache next = (Cache) nextMemory;
+            Simulation.blockingWait(() -> next.acceptVictim(callingFrom, lineAddress(slot), getCacheLine(slot), dirty[slot], mshrs.length == 0) != Memory.WAIT);
+        } else if (dirty[slot] && bufferWrites()) {
+            // A non-blocking cache can't wait for room either, it lets the buffer go over capacity instead
+            Simulation.blockingWait(() -> {
+                if (writeBuffer.write(lineAddress(slot), getCacheLine(slot), 0, lineLength, mshrs.length > 0))
+                    return true;
+
+                writeBuffer.drainNow();
+                return false;
+            });
+        } else if (dirty[slot] && mshrs.length > 0) {
+            nextMemory.postBlock(lineAddress(slot), getCacheLine(slot), lineLength);
+        } else if (dirty[slot]) {
+            writeBack(callingFrom, slot);
         }
+
+        valid[slot] = false;
+        dirty[slot] = false;
     }
 
-    @Override
-    public int write(String callingFrom, int address, int val) {
-        int tagLoc = -1;
-        int tag = address - address % 4;
+    private boolean exclusiveNext() {
+        return nextMemory instanceof Cache && ((Cache) nextMemory).inclusion == Inclusion.EXCLUSIVE;
+    }
 
-        //Finding the set of the address
-        int set = (address / 16) % 4; //Setting set to cycle of 16 words
+    private void backInvalidate(int slot) {
+        for (Cache upper : upperCaches)
+            if (upper.invalidate(lineAddress(slot), lineLength, getCacheLine(slot)))
+                dirty[slot] = true;
+    }
 
-        // Check if tag is in cache
-        for (int i = set * 4; i < (set * 4) + lru[set].length; i++) {
-            if (tags[i] == tag) {
-                tagLoc = i;
-                break;
+    // Drops every line overlapping [address, address + length), copying dirty words into into (which holds that range).
+    // Returns true if anything dirty was copied
+    private boolean invalidate(int address, int length, int[] into) {
+        boolean wasDirty = false;
+
+        for (int lineStart = address & ~offsetMask; lineStart < address + length; lineStart += lineLength) {
+            int slot = find(lineStart);
+            if (slot < 0) continue;
+
+            if (inclusion == Inclusion.INCLUSIVE)
+                backInvalidate(slot);
+
+            if (dirty[slot]) {
+                int from = Math.max(lineStart, address), to = Math.min(lineStart + lineLength, address + length);
+                System.arraycopy(getCacheLine(slot), from - lineStart, into, from - address, to - from);
+                wasDirty = true;
             }
+
+            valid[slot] = false;
+            dirty[slot] = false;
+            refreshLineData(slot);
         }
 
-        //Write to cache after ejecting dirty bit
-        if(tagLoc >= 0) {
-            //Checking the dirty bits and writing back to Next Memory if the bit is true
-            if (dirty[tagLoc]) {
-                int[] oldLine = super.getLine("", tagLoc * 4);
-                int out = Memory.WAIT;
-                System.out.println("Trying to writeback line to memory at address " + (tag));
-                while (out == Memory.WAIT) {
-                    out = nextMemory.writeLine(callingFrom, (tag / 4), oldLine);
-                    System.out.println("Cache returned " + (out == Memory.WAIT ? "WAIT" : ("" + out)));
-                }
-            }
+        return wasDirty;
+    }
+
+    // Exclusive caches: a cache above missed on address. Hands the line over (with its dirty bit) and drops it here,
+    // on a miss the line comes from further down without being kept here
+    private int[] claimBlock(String callingFrom, int address, int count, boolean[] claimedDirty) {
+        int slot = find(address);
+        if (lookupWait(callingFrom, address, slot < 0))
+            return new int[]{Memory.WAIT};
+
+        if (slot >= 0) {
+            hits++;
+            int offset = address & offsetMask;
+            int[] block = Arrays.copyOfRange(getCacheLine(slot), offset, offset + count);
+            claimedDirty[0] = dirty[slot];
+
+            valid[slot] = false;
+            dirty[slot] = false;
+            refreshLineData(slot);
+            return block;
+        }
 
-            this.writeSingleValueInCache(tagLoc, address % 4, val);
-            dirty[tagLoc] = true;
-            //for ui
-            int[] line = getCacheLine(tagLoc);
-            lineData.set(tagLoc, new LineData(0, tag, line[0], line[1], line[2], line[3]));
-            lineData.get(tagLoc).v.set(1);
+        int[] block = fetchLine(callingFrom, address, claimedDirty); // Same line length at every exclusive level
+        if (block[0] != Memory.WAIT)
+            missDone(callingFrom, address);
 
+        return block;
+    }
+
+    // Exclusive caches: takes a line evicted from a cache above, wait = false skips the lookup latency
+    private int acceptVictim(String callingFrom, int address, int[] line, boolean isDirty, boolean wait) {
+        if (wait && hitLatency > 0 && needsToWait(callingFrom, address))
+            return Memory.WAIT;
+
+        int slot = find(address);
+        if (slot >= 0) {
+            touch(slot);
+            System.arraycopy(line, 0, getCacheLine(slot), 0, lineLength);
+            dirty[slot] |= isDirty;
+            refreshLineData(slot);
             return 1;
-        } else {
-            return nextMemory.write("Cache", address, val);
         }
+
+        slot = victim((address >>> offsetBits) & setMask);
+        if (valid[slot])
+            evict(callingFrom, slot);
+
+        install(slot, address, line, isDirty);
+        return 1;
+    }
+
+    // An empty line if the set has one, otherwise whichever the replacement policy picks
+    private int victim(int set) {
+        int first = set * ways;
+
+        for (int i = first; i < first + ways; i++)
+            if (!valid[i])
+                return i;
+
+        return first + policy.victim(set);
+    }
+
+    private void touch(int slot) {
+        policy.touch(slot / ways, slot % ways);
+        refreshLru(slot / ways);
+    }
+
+    private void refreshLru(int set) {
+        if (lineData == null) return;
+
+        for (int way = 0; way < ways; way++)
+            lineData.get(set * ways + way).setLru(policy.state(set, way));
+    }
+
+    private void writeBack(String callingFrom, int slot) {
+        int lineAddress = lineAddress(slot);
+
+        Simulation.log("Trying to writeback line to memory at address " + lineAddress);
+        Simulation.blockingWait(() -> nextMemory.writeBlock(callingFrom, lineAddress, getCacheLine(slot), lineLength) != Memory.WAIT);
+
+        dirty[slot] = false;
+    }
+
+    private int lineAddress(int slot) {
+        return (tags[slot] << (offsetBits + setBits)) | ((slot / ways) << offsetBits);
+    }
+
+    private void refreshLineData(int slot) {
+        if (lineData == null) return;
+
+        int[] line = getCacheLine(slot);
+        LineData data = new LineData(policy.state(slot / ways, slot % ways), lineAddress(slot), line[0],
+                lineLength > 1 ? line[1] : 0, lineLength > 2 ? line[2] : 0, lineLength > 3 ? line[3] : 0);
+        data.v.set(valid[slot] ? 1 : 0);
+        data.setDirty(dirty[slot] ? 1 : 0);
+        lineData.set(slot, data);
     }
 
+    // Writes without waiting: into the line on a hit, otherwise passed down
     @Override
-    public int[] getLine(String callingFrom, int address){
-        int offset = address % 4;
-        int tag = address - offset; //getting start of the line
-        int tagLoc = -1;
-        //Finding the set of the address
-        int set = (address / 16) % 4; //Setting set to cycle of 16 words
-
-        // Check if tag is in cache
-        for (int i = set * 4; i < (set * 4) + lru[set].length; i++) {
-            if (tags[i] == tag) {
-                tagLoc = i;
-                break;
+    public void postBlock(int address, int[] values, int count) {
+        for (int done = 0; done < count; ) {
+            int offset = (address + done) & offsetMask;
+            int n = Math.min(count - done, lineLength - offset);
+            int slot = find(address + done);
+
+            if (slot < 0 && bufferWrites()) {
+                writeBuffer.write(address + done, values, done, n, true); // Behind any older writes to the line
+            } else if (slot < 0) {
+                nextMemory.postBlock(address + done, Arrays.copyOfRange(values, done, done + n), n);
+            } else {
+                System.arraycopy(values, done, getCacheLine(slot), offset, n);
+                dirty[slot] = true;
+                refreshLineData(slot);
             }
-        }
 
-        // If tag is in cache
-        if(tagLoc >= 0){
-            if (lru[set][tagLoc%4] != 0) {
-                for (int i = 0; i < lru[set].length; i++) { // Update LRU (0 for nextLoc, +1 for everything else)
-                    if(lru[set][i] != -1) {
-                        lru[set][i] = (tagLoc % 4 == i) ? 0 : ((tags[i + (set * 4)] == 0 && !valid[i + (set * 4)]) ? -1 : lru[set][i] + 1);
-                    }
-                    lineData.get(i+(set*4)).setLru(lru[set][i]);
-                }
-            }
-            //Only returning the requested amount of words
-            lru[set][3] =1;
-            int[] cacheLine =  this.getCacheLine(tagLoc);
-            int[] returnLine = new int[4];
-            for(int i = 0; i < 4; i++){
-                returnLine[i] = cacheLine[i];
-            }
-            return returnLine;
+            done += n;
         }
-        else{
-            int nextLoc = -1;
+    }
 
-            //Finding the set of the address
-            set = (address / 16)%4; //Setting set to cycle of 16 words
+    // count = 0 makes the cache blocking again. While there are MSHRs lookups are timed by cycle (pipelined),
+    // so the next memory should be pipelined or non-blocking too or a miss in SteppedPipeline never finishes
+    public void setMshrs(int count) {
+        mshrs = new Mshr[count];
+        for (int i = 0; i < count; i++)
+            mshrs[i] = new Mshr();
 
-            //Setting maxLRULoc to the start of the set
-            int maxLRULoc = set*4;
+        setPipelined(count > 0);
+    }
 
-            // Look for empty spot and find least recently used full spot
-            for (int i = set*4; i < (set*4)+lru[set].length; i++)
-                if (tags[i] == -1 && !valid[i]) {
-                    nextLoc = i;
-                    break;
-                } else if (lru[set][i%4] > lru[set][maxLRULoc%4])
-                    maxLRULoc = i;
+    // entries = 0 removes the buffer. Write backs and write misses then go into the buffer instead of waiting on the
+    // next memory, except when that's an exclusive cache (victims are handed to it directly, so can't queue behind it)
+    public void setWriteBuffer(int entries) {
+        writeBuffer = entries > 0 ? new WriteBuffer(entries, lineLength, nextMemory, name + " WB") : null;
+    }
 
-            lru[set][3] =1;
-            if (nextLoc == -1) // Cache is full, take LRU
-                nextLoc = maxLRULoc;
-            int[] line = nextMemory.getLine(callingFrom, address);
+    // null if there is none
+    public WriteBuffer getWriteBuffer() {
+        return writeBuffer;
+    }
 
-            if (line[0] == Memory.WAIT)
-                return new int[]{Memory.WAIT};
-            // address added for writeback in case of dirty bit found on 1
-            super.writeLine("Cache",nextLoc,line);
-            lineData.set(nextLoc, new LineData(0, tag, line[0], line[1], line[2], line[3]));
-            lineData.get(nextLoc).v.set(1);
-            return line;
+    // Drains the write buffer until it's empty, for when another cache has to see the writes (e.g. a program loaded through L1D)
+    public void flushWriteBuffer() {
+        while (writeBuffer != null && !writeBuffer.isEmpty())
+            writeBuffer.drainNow();
+    }
+
+    // Writes every dirty line (and the write buffer) down to the next memory and marks the lines clean,
+    // e.g. before saving a memory image. The caches below still have to be flushed after this one
+    public void flush() {
+        flushWriteBuffer();
+
+        for (int slot = 0; slot < valid.length; slot++) {
+            if (!valid[slot] || !dirty[slot]) continue;
+
+            nextMemory.postBlock(lineAddress(slot), getCacheLine(slot), lineLength);
+            dirty[slot] = false;
+            refreshLineData(slot);
         }
     }
 
-    @Override
-    public int writeLinePartial(String callingFrom, int address, int[] line,int size) {
-        int offset = address % 4;
-        int tag = address - offset; //getting start of the line
-        int tagLoc = -1;
-
-        //Finding the set of the address
-        int set = (address / 16) % 4; //Setting set to cycle of 16 words
-
-        // Check if tag is in cache
-        for (int i = set * 4; i < (set * 4) + lru[set].length; i++) {
-            if (tags[i] == tag) {
-                tagLoc = i;
-                break;
-            }
+    // Flushes, then drops every line, e.g. after a program was loaded into memory behind the cache's back.
+    // The caches below have to be flushed before any of them is invalidated
+    public void invalidate() {
+        flush();
+
+        for (int slot = 0; slot < valid.length; slot++) {
+            valid[slot] = false;
+            refreshLineData(slot);
         }
 
-        //If tag is in the cache
-        if (tagLoc >= 0) {
-            //If the dirty bit is set to true writeback to memory
-            if (dirty[tagLoc]) {
-                int[] oldLine = super.getLine("", tagLoc * 4);
-                int out = Memory.WAIT;
-                System.out.println("Trying to writeback line to memory at address " + (tag));
-                while (out == Memory.WAIT) {
-                    out = nextMemory.writeLine(callingFrom, (tag / 4), oldLine);
-                    System.out.println("Cache returned " + (out == Memory.WAIT ? "WAIT" : ("" + out)));
-                }
-            }
+        for (Mshr mshr : mshrs)
+            mshr.lineAddress = -1;
+        missing.clear();
+    }
 
-            lru[set][3] =1;
-            super.writeLinePartial(callingFrom,address,line,size);
-            dirty[tagLoc] = true;
-            //for demo
-            int[] cLine = getCacheLine(tagLoc);
+    private boolean bufferWrites() {
+        return writeBuffer != null && !exclusiveNext();
+    }
 
-            lineData.set(tagLoc, new LineData(0, tag, cLine[0], cLine[1], cLine[2], cLine[3]));
-            lineData.get(tagLoc).v.set(1);
+    private void drainWriteBuffer() {
+        if (writeBuffer != null)
+            writeBuffer.drain();
+    }
 
-            return 1;
-        }else{
-            int check = nextMemory.writeLinePartial("Cache",address,line,size);
-            if (check == Memory.WAIT)
-                return Memory.WAIT;
-            // address added for writeback in case of dirty bit found on 1
-            return check;
+    public int getMshrs() {
+        return mshrs.length;
+    }
+
+    @Override
+    public boolean isNonBlocking() {
+        return mshrs.length > 0;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setInclusion(Inclusion inclusion) {
+        this.inclusion = inclusion;
+    }
+
+    public Inclusion getInclusion() {
+        return inclusion;
+    }
+
+    // Registers a cache that fills from this one, needed for inclusive back invalidation
+    public void addUpperCache(Cache cache) {
+        upperCaches.add(cache);
+    }
+
+    public int getHitLatency() {
+        return hitLatency;
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    // With MSHRs only the first miss on a line counts here, the ones merged into it are in getMergedMisses()
+    public long getMisses() {
+        return misses;
+    }
+
+    public long getMergedMisses() {
+        return mergedMisses;
+    }
+
+    // Polls that found every MSHR busy
+    public long getMshrStalls() {
+        return mshrStalls;
+    }
+
+    public int getNumSets() {
+        return numSets;
+    }
+
+    public int getWays() {
+        return ways;
+    }
+
+    public ReplacementPolicy getPolicy() {
+        return policy;
+    }
+
+    public Memory getNextMemory() {
+        return nextMemory;
+    }
+
+    private static class Mshr {
+        public int lineAddress = -1; // -1 when free
+        public final ArrayList<Access> requesters = new ArrayList<>(); // Accesses merged into the miss, to count them once
+    }
+
+    // Who is asking for which address. Compared field by field, so polls don't build a key to look one up
+    private static class Access {
+        public final String callingFrom;
+        public final int address;
+
+        public Access(String callingFrom, int address) {
+            this.callingFrom = callingFrom;
+            this.address = address;
         }
     }
 
+    // Only ever a handful of accesses are waiting, so a scan is cheaper than hashing
+    private static int indexOf(ArrayList<Access> accesses, String callingFrom, int address) {
+        for (int i = 0; i < accesses.size(); i++) {
+            Access access = accesses.get(i);
+            if (access.address == address && access.callingFrom.equals(callingFrom))
+                return i;
+        }
+
+        return -1;
+    }
+
+    // Returns true if the access was there
+    private static boolean remove(ArrayList<Access> accesses, String callingFrom, int address) {
+        int i = indexOf(accesses, callingFrom, address);
+        if (i < 0)
+            return false;
+
+        accesses.remove(i);
+        return true;
+    }
+
     // Holds cache line data to display in table
     public class LineData {
         public SimpleIntegerProperty lru, tag, v, word1, word2, word3, word4, dirty;
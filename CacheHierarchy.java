@@ -0,0 +1,162 @@
+import java.util.ArrayList;
+import java.util.List;
+
+// Separate L1 instruction and data caches over a unified L2 (and an optional L3) in front of RAM,
+// so Fetch and Memory Access stop evicting each other's lines
+public class CacheHierarchy {
+
+    // Geometry, hit latency (in cycles) and replacement policy of one level
+    public static class Level {
+        public final int sets, ways, lineLength, latency;
+        public final String policy;
+
+        public Level(int sets, int ways, int lineLength, int latency, String policy) {
+            this.sets = sets;
+            this.ways = ways;
+            this.lineLength = lineLength;
+            this.latency = latency;
+            this.policy = policy;
+        }
+
+        // sets:ways:line:latency[:policy]
+        public static Level parse(String spec) {
+            String[] parts = spec.split(":");
+            if (parts.length < 4)
+                throw new IllegalArgumentException("Cache level should be sets:ways:line:latency[:policy], got " + spec);
+
+            return new Level(Integer.parseInt(parts[0]), Integer.parseInt(parts[1]), Integer.parseInt(parts[2]),
+                    Integer.parseInt(parts[3]), parts.length > 4 ? parts[4] : "lru");
+        }
+
+        private Cache build(Memory nextMemory, boolean showUI) {
+            return new Cache(sets, ways, lineLength, latency, ReplacementPolicy.create(policy, sets, ways), nextMemory, showUI);
+        }
+
+        @Override
+        public String toString() {
+            return sets + ":" + ways + ":" + lineLength + ":" + latency + ":" + policy;
+        }
+    }
+
+    public static final Level DEFAULT_L1I = new Level(8, 2, 4, 0, "lru");
+    public static final Level DEFAULT_L1D = new Level(8, 4, 4, 0, "lru");
+    public static final Level DEFAULT_L2 = new Level(32, 8, 8, 10, "lru");
+    public static final Level DEFAULT_EXCLUSIVE_L2 = new Level(64, 8, 4, 10, "lru"); // Same size, the L1s' line length
+
+    // Exclusive levels need the L1s' line length, so they get an L2 with the same capacity in 4 word lines
+    public static Level defaultL2(Cache.Inclusion inclusion) {
+        return inclusion == Cache.Inclusion.EXCLUSIVE ? DEFAULT_EXCLUSIVE_L2 : DEFAULT_L2;
+    }
+
+    private final Cache l1i, l1d, l2, l3;
+
+    // l3 can be null. Inclusive and exclusive levels need lines at least as long (exclusive: exactly as long) as the level above
+    public CacheHierarchy(Memory RAM, Level l1i, Level l1d, Level l2, Level l3, Cache.Inclusion inclusion, boolean showUI) {
+        checkLines(l1i, "l1i", l2, "l2", inclusion);
+        checkLines(l1d, "l1d", l2, "l2", inclusion);
+        if (l3 != null)
+            checkLines(l2, "l2", l3, "l3", inclusion);
+
+        this.l3 = l3 == null ? null : l3.build(RAM, showUI);
+        this.l2 = l2.build(l3 == null ? RAM : this.l3, showUI);
+        this.l1i = l1i.build(this.l2, showUI);
+        this.l1d = l1d.build(this.l2, showUI);
+
+        this.l1i.setName("L1I");
+        this.l1d.setName("L1D");
+        this.l2.setName("L2");
+        if (this.l3 != null)
+            this.l3.setName("L3");
+
+        this.l2.setInclusion(inclusion);
+        this.l2.addUpperCache(this.l1i);
+        this.l2.addUpperCache(this.l1d);
+
+        if (this.l3 != null) {
+            this.l3.setInclusion(inclusion);
+            this.l3.addUpperCache(this.l2);
+        }
+    }
+
+    // upperName and lowerName are the levels' flags (without --), so the message says what to change
+    private static void checkLines(Level upper, String upperName, Level lower, String lowerName, Cache.Inclusion inclusion) {
+        String lines = upperName.toUpperCase() + " has " + upper.lineLength + " word lines and " + lowerName.toUpperCase()
+                + " " + lower.lineLength + ", change the line length in --" + upperName + " or --" + lowerName;
+
+        if (inclusion == Cache.Inclusion.EXCLUSIVE && upper.lineLength != lower.lineLength)
+            throw new IllegalArgumentException("Exclusive caches need the same line length at every level: " + lines);
+        if (inclusion == Cache.Inclusion.INCLUSIVE && upper.lineLength > lower.lineLength)
+            throw new IllegalArgumentException("Inclusive caches can't have longer lines than the level below: " + lines);
+    }
+
+    public Cache getL1I() {
+        return l1i;
+    }
+
+    public Cache getL1D() {
+        return l1d;
+    }
+
+    public Cache getL2() {
+        return l2;
+    }
+
+    // null if there is no L3
+    public Cache getL3() {
+        return l3;
+    }
+
+    public List<Cache> getLevels() {
+        ArrayList<Cache> levels = new ArrayList<>();
+        levels.add(l1i);
+        levels.add(l1d);
+        levels.add(l2);
+        if (l3 != null)
+            levels.add(l3);
+
+        return levels;
+    }
+
+    // Makes every level non-blocking with count MSHRs (0 for blocking). RAM should be pipelined to match
+    public void setMshrs(int count) {
+        for (Cache cache : getLevels())
+            cache.setMshrs(count);
+    }
+
+    // Gives every level a write buffer of entries lines (0 for none). Exclusive levels' buffers go unused
+    public void setWriteBuffer(int entries) {
+        for (Cache cache : getLevels())
+            cache.setWriteBuffer(entries);
+    }
+
+    // Writes every dirty line down to RAM, level by level from the top
+    public void flush() {
+        for (Cache cache : getLevels())
+            cache.flush();
+    }
+
+    // Flushes every level, then drops every line, so nothing is left that could be stale
+    public void invalidate() {
+        flush();
+        for (Cache cache : getLevels())
+            cache.invalidate();
+    }
+
+    public void printStats() {
+        for (Cache cache : getLevels())
+            printStats(cache);
+    }
+
+    public static void printStats(Cache cache) {
+        long accesses = cache.getHits() + cache.getMisses();
+
+        System.out.println(cache.getName() + ": " + cache.getHits() + " hits, " + cache.getMisses() + " misses"
+                + (accesses == 0 ? "" : String.format(" (%.1f%% hit rate)", 100.0 * cache.getHits() / accesses))
+                + (cache.getMshrs() == 0 ? "" : ", " + cache.getMergedMisses() + " merged, " + cache.getMshrStalls() + " MSHR stalls"));
+
+        WriteBuffer buffer = cache.getWriteBuffer();
+        if (buffer != null && buffer.getWrites() > 0)
+            System.out.println(cache.getName() + " write buffer: " + buffer.getWrites() + " writes, " + buffer.getCombined()
+                    + " combined, " + buffer.getReadHits() + " read hits, " + buffer.getFullStalls() + " full");
+    }
+}
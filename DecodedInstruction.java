@@ -0,0 +1,266 @@
+import java.util.HashMap;
+
+// Fields of an instruction word, decoded once and shared by every Instruction fetched with the same word.
+// Register masks have bit r set for scalar register r and bit 16 + v for vector register v (the CND flag is R13).
+// Bit 15 stands for VL rather than the PC: the PC is never an operand the engines wait on, VL is (SETVL writes it and
+// vector instructions without a length read it).
+// readMask only has the operands read before Write Back: appends read their own register's length in Write Back,
+// which goes in program order, so that isn't a hazard
+public class DecodedInstruction {
+    public static final int CND_MASK = 1 << 13;
+    public static final int LR_MASK = 1 << 14;
+    public static final int VL_MASK = 1 << 15;
+    public static final int UNIT_STRIDE = 0, STRIDED = 1, INDEXED = 2; // Vector load/store addressing
+
+    private static final int CACHE_SIZE = 4096; // Direct mapped, a different word in the same slot replaces the entry
+    private static final DecodedInstruction[] cache = new DecodedInstruction[CACHE_SIZE];
+
+    private static final HashMap<Integer, String> opMap = new HashMap<>();
+    private static final HashMap<Integer, String> opMapV = new HashMap<>();
+    private static final HashMap<Integer, String> condMap = new HashMap<>();
+
+    static {
+        opMap.put(0, "ADD");
+        opMap.put(1, "SUBTRACT");
+        opMap.put(2, "MULTIPLY");
+        opMap.put(4, "DIVIDE");
+        opMap.put(8, "MODULO");
+        opMap.put(3, "AND");
+        opMap.put(5, "OR");
+        opMap.put(9, "NOT");
+        opMap.put(10, "XOR");
+        opMap.put(12, "COMPARE");
+        opMap.put(6, "SET FLAG");
+        opMap.put(11, "SWAP");
+        opMap.put(13, "LOAD");
+        opMap.put(14, "STORE");
+        opMap.put(7, "BRANCH");
+        opMap.put(15, "SETVL");
+
+        opMapV.put(0, "ADD");
+        opMapV.put(1, "SUBTRACT");
+        opMapV.put(2, "MULTIPLY");
+        opMapV.put(4, "DIVIDE");
+        opMapV.put(13, "LOAD");
+        opMapV.put(14, "STORE");
+        opMapV.put(7, "APPEND");
+        opMapV.put(3, "VMULTIPLY");
+        opMapV.put(5, "FMA");
+        opMapV.put(8, "SUM");
+        opMapV.put(9, "MIN");
+        opMapV.put(10, "MAX");
+
+        condMap.put(0, "EQ");
+        condMap.put(1, "NE");
+        condMap.put(2, "GT");
+        condMap.put(3, "GTE");
+        condMap.put(4, "LT");
+        condMap.put(5, "LTE");
+    }
+
+    public final int word;
+    public final int type, opCode;
+    public final int rd, r1, r2, imm; // -1 when the instruction type doesn't have the field
+    public final int cond, link, vectorLength;
+    public final int addressing; // Of a vector load/store, r2 is the stride (R) or index (V) register of STRIDED and INDEXED
+    public final int readMask, writeMask;
+
+    private String text; // Display string, only built when something prints the instruction
+
+    // Returns the decoded form of word, decoding it only the first time it's seen
+    public static DecodedInstruction of(int word) {
+        int slot = (word ^ (word >>> 12) ^ (word >>> 24)) & (CACHE_SIZE - 1);
+        DecodedInstruction decoded = cache[slot];
+
+        if (decoded == null || decoded.word != word) {
+            decoded = new DecodedInstruction(word);
+            cache[slot] = decoded;
+        }
+
+        return decoded;
+    }
+
+    public static int scalarMask(int register) {
+        return 1 << register;
+    }
+
+    public static int vectorMask(int register) {
+        return 1 << (16 + register);
+    }
+
+    private DecodedInstruction(int instr) {
+        int r_d = -1, r_1 = -1, r_2 = -1, immediate = -1, condCode = 0, linkCode = -1, vLength = -1, vAddressing = UNIT_STRIDE;
+        int reads = 0, writes = 0;
+
+        this.word = instr;
+        this.type =   (instr & 0b00001111000000000000000000000000) >> 24;
+        this.opCode = (instr & 0b00000000111100000000000000000000) >> 20;
+
+        switch (type) {
+            case 0: // Data Processing with 3 operands (rd = r1 + r2)
+            case 1: // Data Processing Register Indirect(both) with 3 operands (rd = ValueAt(r1) + ValueAt(r2))
+            case 2: // Data Processing Register Indirect(one) with 3 operands (rd = ValueAt(r1) + r2)
+                r_d = (instr & 0b00000000000001111000000000000000) >> 15;
+                r_1 = (instr & 0b00000000000000000111100000000000) >> 11;
+                r_2 = (instr & 0b00000000000000000000011110000000) >> 7;
+                condCode = (instr & 0b11110000000000000000000000000000) >>> 28;
+
+                reads = scalarMask(r_1) | (type == 0 && opCode == 15 ? 0 : scalarMask(r_2));
+                writes = opCode == 12 ? CND_MASK : scalarMask(r_d);
+                if (type == 0 && opCode == 15) // SETVL rd = VL = min(r1, MVL)
+                    writes |= VL_MASK;
+                break;
+            case 3: // Data Processing with operand and immediate (rd = r1 + 3)
+            case 4: // Data processing Indirect with 2 operands and an immediate (rd = ValueAt(r1) + 3)
+                r_d = (instr & 0b00000000000001111000000000000000) >> 15;
+                r_1 = (instr & 0b00000000000000000111100000000000) >> 11;
+                immediate = (instr & 0b00000000000000000000011111111000) >> 3;
+                condCode = (instr & 0b11110000000000000000000000000000) >>> 28;
+
+                reads = type == 3 && opCode == 15 ? 0 : scalarMask(r_1); // SETVL rd = VL = min(imm, MVL)
+                writes = opCode == 12 ? CND_MASK : scalarMask(r_d);
+                if (type == 3 && opCode == 15)
+                    writes |= VL_MASK;
+                break;
+            case 5: // Load/Store (Load value from address into rd / store value in r1 at address in rd)
+                r_d = (instr & 0b00000000000001111000000000000000) >> 15;
+                r_1 = (instr & 0b00000000000000000111100000000000) >> 11;
+
+                reads = scalarMask(r_1);
+                if (opCode == 13)
+                    writes = scalarMask(r_d);
+                else
+                    reads |= scalarMask(r_d);
+                break;
+            case 6: // Load/Store immediate (Load 3 into register rd / Store 3 into the address in rd)
+                r_d = (instr & 0b00000000000001111000000000000000) >> 15;
+                immediate = (instr & 0b00000000000000000111111111111000) >> 3;
+
+                if (opCode == 13)
+                    writes = scalarMask(r_d);
+                else
+                    reads = scalarMask(r_d);
+                break;
+            case 7: // Branch Instruction
+                condCode = (instr & 0b11110000000000000000000000000000) >>> 28; //Condition
+                int sign = (instr & 0b00000000010000000000000000000000) >> 22;
+                immediate = (instr & 0b00000000001111111111111111111111); //Offset/number of lines of code to jump
+                linkCode =  (instr & 0b00000000100000000000000000000000) >> 23;
+                immediate *= (sign == 1 ? -1 : 1);
+
+                if (condCode == 7)
+                    reads = LR_MASK;
+                else if (condCode != Instruction.NO_COND)
+                    reads = CND_MASK;
+                break;
+            case 8: // Vector Load/Store Load vector from address into rd / store vector in rd into address)
+                r_d = (instr & 0b00000000000001111000000000000000) >> 15;
+                r_1 = (instr & 0b00000000000000000111100000000000) >> 11;
+                vLength = (instr & 0b00000000000000000000011111000000) >> 6;
+                if (opCode != 7) {
+                    vAddressing = (instr & 0b00000000000000000000000000110000) >> 4;
+                    if (vAddressing != UNIT_STRIDE)
+                        r_2 = (instr & 0b00000000000000000000000000001111);
+                }
+
+                if (opCode == 7) {
+                    writes = vectorMask(r_d);
+                } else if (opCode == 13) {
+                    reads = scalarMask(r_1);
+                    writes = vectorMask(r_d);
+                } else {
+                    reads = scalarMask(r_1) | vectorMask(r_d);
+                }
+                if (vAddressing == STRIDED) // Element i is at r1 + i * r2
+                    reads |= scalarMask(r_2);
+                else if (vAddressing == INDEXED) // Element i is at r1 + v2[i]
+                    reads |= vectorMask(r_2);
+                break;
+            case 9: // Vector Data Processing with 3 operands (Vd = V1 + V2)
+                r_d = (instr & 0b00000000000001111000000000000000) >> 15;
+                r_1 = (instr & 0b00000000000000000111100000000000) >> 11;
+                r_2 = (instr & 0b00000000000000000000011110000000) >> 7;
+                condCode = (instr & 0b11110000000000000000000000000000) >>> 28;
+                vLength = (instr & 0b00000000000000000000000001111100) >> 2;
+
+                reads = vectorMask(r_1) | vectorMask(r_2);
+                writes = vectorMask(r_d); // The dot product (opCode 2) is appended to vd
+                if (opCode == 5) { // Multiply-add accumulates into vd
+                    reads |= vectorMask(r_d);
+                } else if (opCode >= 8) { // Sum, min and max reduce v1 into scalar register rd
+                    reads = vectorMask(r_1);
+                    writes = scalarMask(r_d);
+                }
+                break;
+            case 10: // Vector Data Processing with operand and immediate (rd = r1 + 3)
+                r_d = (instr & 0b00000000000001111000000000000000) >> 15;
+                r_1 = (instr & 0b00000000000000000111100000000000) >> 11;
+                immediate = (instr & 0b00000000000000000000011111100000) >> 5;
+                condCode = (instr & 0b11110000000000000000000000000000) >>> 28;
+                vLength = (instr & 0b00000000000000000000000000011111);
+
+                reads = vectorMask(r_1);
+                writes = vectorMask(r_d);
+                break;
+        }
+
+        // A length of 0 (left out in the source) means the length in VL
+        if (vLength == 0 && !(type == 8 && opCode == 7))
+            reads |= VL_MASK;
+
+        this.rd = r_d;
+        this.r1 = r_1;
+        this.r2 = r_2;
+        this.imm = immediate;
+        this.cond = condCode;
+        this.link = linkCode;
+        this.vectorLength = vLength;
+        this.addressing = vAddressing;
+        this.readMask = reads;
+        this.writeMask = writes;
+    }
+
+    @Override
+    public String toString() {
+        if (text == null)
+            text = buildText();
+
+        return text;
+    }
+
+    private String buildText() {
+        switch (type) {
+            case 0:
+                if (opCode == 15)
+                    return "SETVL R" + rd + " R" + r1;
+                return opMap.get(opCode) + (opCode == 12 ? "" : " R" + rd) + " R" + r1 + " R" + r2;
+            case 1:
+                return opMap.get(opCode) + (opCode == 12 ? "" : " R" + rd) + " ValAt(R" + r1 + ") ValAt(R" + r2 + ")";
+            case 2:
+                return opMap.get(opCode) + (opCode == 12 ? "" : " R" + rd) + " ValAt(R" + r1 + ") R" + r2;
+            case 3:
+                if (opCode == 15)
+                    return "SETVL R" + rd + " " + imm;
+                return opMap.get(opCode) + (opCode == 12 ? "" : " R" + rd) + " R" + r1 + " " + imm;
+            case 4:
+                return opMap.get(opCode) + (opCode == 12 ? "" : " R" + rd) + " ValAt(R" + r1 + ") " + imm;
+            case 5:
+                return opMap.get(opCode) + " R" + rd + " R" + r1;
+            case 6:
+                return opMap.get(opCode) + " R" + rd + " " + imm;
+            case 7:
+                return "BRANCH " + imm + (cond == Instruction.NO_COND ? "" : " IF " + condMap.get(cond));
+            case 8:
+                return opMapV.get(opCode) + " V" + rd + (opCode == 7 ? " " : (opCode == 13 ? " R" : " V")) + r1
+                        + (addressing == STRIDED ? " R" + r2 : addressing == INDEXED ? " V" + r2 : "");
+            case 9:
+                if (opCode >= 8)
+                    return opMapV.get(opCode) + " R" + rd + " V" + r1;
+                return opMapV.get(opCode) + (opCode == 12 ? "" : " V" + rd) + " V" + r1 + " V" + r2;
+            case 10:
+                return opMapV.get(opCode) + (opCode == 12 ? "" : " V" + rd) + " V" + r1 + " " + imm;
+            default:
+                return "INVALID TYPE";
+        }
+    }
+}
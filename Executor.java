@@ -0,0 +1,458 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// Execute and Write Back work of an instruction, shared by the pipeline engines
+public class Executor {
+
+    private final Registers registers;
+    private final VectorRegisters vectorRegisters;
+    private List<Instruction> bypass = Collections.emptyList(); // Older instructions that haven't written back, oldest first
+    private final VectorKernels kernels = VectorKernels.get(); // Element-wise arithmetic of types 9 and 10
+
+    public Executor(Registers registers, VectorRegisters vectorRegisters) {
+        this.registers = registers;
+        this.vectorRegisters = vectorRegisters;
+    }
+
+    // Results of producers are forwarded to the next execute(): registers they write are read from the youngest one's
+    // pending write back instead of the register files. Oldest first, null reads the register files only
+    public void setBypass(List<Instruction> producers) {
+        this.bypass = producers == null ? Collections.<Instruction>emptyList() : producers;
+    }
+
+    public void execute(Instruction instruction) {
+        int type = instruction.getType();
+        int opCode = instruction.getOpCode();
+        DecodedInstruction decoded = instruction.getDecoded();
+
+        if (instruction.usesVectorLength())
+            instruction.setVectorLength(readVectorLength());
+
+        switch (type) {
+            case 0: // Data Processing with 3 operands (rd = r1 + r2)
+                switch (opCode) {
+                    case 0: // Add
+                        int r_d = decoded.rd;
+                        int r_1 = decoded.r1;
+                        int r_2 = decoded.r2;
+
+                        instruction.saveToWriteBack(r_d, read(r_1) + read(r_2), true);
+                        break;
+                    case 1: // Subtract
+                        r_d = decoded.rd;
+                        r_1 = decoded.r1;
+                        r_2 = decoded.r2;
+
+                        instruction.saveToWriteBack(r_d, read(r_1) - read(r_2), true);
+                        break;
+                    case 2: // Multiply
+                        r_d = decoded.rd;
+                        r_1 = decoded.r1;
+                        r_2 = decoded.r2;
+
+                        instruction.saveToWriteBack(r_d, read(r_1) * read(r_2), true);
+                        break;
+                    case 4: // Divide(Not the processor's job to catch the dividing by zero error)
+                        r_d = decoded.rd;
+                        r_1 = decoded.r1;
+                        r_2 = decoded.r2;
+
+                        instruction.saveToWriteBack(r_d, read(r_1) / read(r_2), true);
+                        break;
+                    case 8: // Modulo(Not the processor's job to catch the dividing by zero error)
+                        r_d = decoded.rd;
+                        r_1 = decoded.r1;
+                        r_2 = decoded.r2;
+
+                        instruction.saveToWriteBack(r_d, read(r_1) % read(r_2), true);
+                        break;
+                    case 12: // Compare
+                        r_1 = read(decoded.r1);
+                        r_2 = read(decoded.r2);
+
+                        int cmp = compare(r_1, r_2);
+                        instruction.saveToWriteBack(13, cmp, true);
+                        break;
+                    case 15: // Set vector length (rd = VL = min(r1, MVL))
+                        r_d = decoded.rd;
+                        r_1 = decoded.r1;
+
+                        instruction.saveToWriteBack(r_d, vectorRegisters.clampVectorLength(read(r_1)), true);
+                        break;
+                    default:
+                        System.out.println("Invalid OPcode: "+opCode);
+                        break;
+                }
+                break;
+            case 1://Data Processing Register Indirect(both) with 3 operands (rd = ValueAt(r1) + ValueAt(r2))
+                switch(opCode){
+                    case 0://Add
+
+                    case 1: // Subtract
+
+                    case 2: // Multiply
+
+                    case 4: // Divide(Not the processor's job to catch the dividing by zero error)
+
+                    case 8: // Modulo(Not the processor's job to catch the dividing by zero error)
+                        int r_d = decoded.rd;
+                        int r_1 = decoded.r1;
+                        int r_2 = decoded.r2;
+
+                        instruction.saveToMemAccess(read(r_1),read(r_2),r_d,opCode,type);
+                        break;
+                    case 12: // Compare
+                        r_1 = read(decoded.r1);
+                        r_2 = read(decoded.r2);
+
+                        instruction.saveToMemAccess(read(r_1),read(r_2),13,opCode,type);
+                        break;
+                    default:
+                        System.out.println("Invalid OPcode: "+opCode);
+                        break;
+                }
+                break;
+            case 2://Data Processing Register Indirect(one) with 3 operands (rd = ValueAt(r1) + r2)
+                //The second parameter is an immediate not a register value
+                switch(opCode){
+                    case 0://Add
+
+                    case 1: // Subtract
+
+                    case 2: // Multiply
+
+                    case 4: // Divide(Not the processor's job to catch the dividing by zero error)
+
+                    case 8: // Modulo(Not the processor's job to catch the dividing by zero error)
+                        int r_d = decoded.rd;
+                        int r_1 = decoded.r1;
+                        int r_2 = decoded.r2;
+
+                        instruction.saveToMemAccess(read(r_1),r_2,r_d,opCode,type);
+                        break;
+                    case 12: // Compare
+                        r_1 = read(decoded.r1);
+                        r_2 = read(decoded.r2);
+
+                        instruction.saveToMemAccess(read(r_1),r_2,13,opCode,type);
+                        break;
+                    default:
+                        System.out.println("Invalid OPcode: "+opCode);
+                        break;
+                }
+                break;
+            case 3: // Data Processing with operand and immediate (rd = r1 + 3)
+                switch (opCode) {
+                    case 0: // Add
+                        int r_d = decoded.rd;
+                        int r_1 = decoded.r1;
+                        int imm = decoded.imm;
+
+                        instruction.saveToWriteBack(r_d, read(r_1) + imm, true);
+                        break;
+                    case 1: // Subtract
+                        r_d = decoded.rd;
+                        r_1 = decoded.r1;
+                        imm = decoded.imm;
+
+                        instruction.saveToWriteBack(r_d, read(r_1) - imm, true);
+                        break;
+                    case 2: // Multiply
+                        r_d = decoded.rd;
+                        r_1 = decoded.r1;
+                        imm = decoded.imm;
+
+                        instruction.saveToWriteBack(r_d, read(r_1) * imm, true);
+                        break;
+                    case 4: // Divide(Not the processor's job to catch the dividing by zero error)
+                        r_d = decoded.rd;
+                        r_1 = decoded.r1;
+                        imm = decoded.imm;
+
+                        instruction.saveToWriteBack(r_d, read(r_1) / imm, true);
+                        break;
+                    case 8: // Modulo(Not the processor's job to catch the dividing by zero error)
+                        r_d = decoded.rd;
+                        r_1 = decoded.r1;
+                        imm = decoded.imm;
+
+                        instruction.saveToWriteBack(r_d, read(r_1) % imm, true);
+                        break;
+                    case 12: // Compare
+                        r_1 = read(decoded.r1);
+                        imm = decoded.imm;
+
+                        int cmp = compare(r_1, imm);
+                        instruction.saveToWriteBack(13, cmp, true);
+                        break;
+                    case 15: // Set vector length (rd = VL = min(imm, MVL))
+                        r_d = decoded.rd;
+                        imm = decoded.imm;
+
+                        instruction.saveToWriteBack(r_d, vectorRegisters.clampVectorLength(imm), true);
+                        break;
+                    default:
+                        System.out.println("Invalid OPcode: "+opCode);
+                        break;
+                }
+                break;
+            case 5: // Load/Store
+                switch (opCode) {
+                    case 13:
+                        //All Loads other than immediate load happen in memory stage
+                        instruction.saveToWriteBack(decoded.rd, read(decoded.r1), false);
+                        break;
+                    case 14:
+                        //Store gets executed in the write back or memory access stage
+                        int address = read(decoded.rd);
+                        int value = read(decoded.r1);
+                        instruction.saveToWriteBack(address, value, false);
+                        break;
+                    default:
+                        System.out.println("Invalid OPcode: "+opCode);
+                        break;
+                }
+                break;
+            case 6: // Load/Store Immediate
+                switch (opCode) {
+                    case 13:
+                        //Only direct load happen in execute stage, all memory based loads happen in memory stage
+                        instruction.saveToWriteBack(decoded.rd, decoded.imm, true);
+                        break;
+                    case 14:
+                        //Store gets executed in the write back or memory access stage
+                        int address = read(decoded.rd);
+                        int value = decoded.imm;
+                        instruction.saveToWriteBack(address, value, false);
+                        break;
+                    default:
+                        System.out.println("Invalid OPcode: "+opCode);
+                        break;
+                }
+                break;
+            case 8:// Vector Load/Store
+                switch (opCode) {
+                    case 13:
+                        //Copy value from origin register to destination register
+
+                    case 14:
+                        //Store gets executed in the write back or memory access stage
+                        instruction.saveToWriteBack(decoded.rd, read(decoded.r1), false);
+                        if (instruction.getAddressing() != DecodedInstruction.UNIT_STRIDE)
+                            instruction.setElementAddresses(elementAddresses(instruction, read(decoded.r1), decoded.r2));
+                        break;
+                    case 7:
+                        //Append value onto vector
+                        instruction.saveToWriteBack(decoded.rd, decoded.r1, true);
+                        break;
+                    default:
+                        System.out.println("Invalid OPcode: "+opCode);
+                        break;
+
+                }
+                break;
+            case 9:
+                int r_d = decoded.rd;
+                int r_1 = decoded.r1;
+                int r_2 = decoded.r2;
+                int len = instruction.getVectorLength();//number of elements
+                int[] v1 = new int[len], v2 = new int[len];
+                readVector(r_1, v1, len);
+                if (!instruction.isReduction())
+                    readVector(r_2, v2, len);
+
+                switch (opCode) {
+                    case 0: // Add
+                    case 1: // Subtract
+                    case 4: // Divide(Not the processor's job to catch the dividing by zero error)
+                        kernels.lanewise(opCode, v1, v2, v1, len);
+                        instruction.vectorSaveToWriteBack(r_d, v1, true);
+                        break;
+                    case 2: // Multiply
+                        //Vector Multiply needs work
+                        instruction.saveToWriteBack(r_d, kernels.dot(v1, v2, len), true);
+                        break;
+                    case 3: // Element-wise multiply
+                        kernels.lanewise(2, v1, v2, v1, len);
+                        instruction.vectorSaveToWriteBack(r_d, v1, true);
+                        break;
+                    case 5: // Multiply-add (vd += v1 * v2)
+                        int[] acc = new int[len];
+                        readVector(r_d, acc, len);
+                        kernels.fma(v1, v2, acc, len);
+                        instruction.vectorSaveToWriteBack(r_d, acc, true);
+                        break;
+                    case 8: // Sum
+                    case 9: // Min
+                    case 10: // Max
+                        instruction.saveToWriteBack(r_d, kernels.reduce(opCode, v1, len), true);
+                        break;
+                    default:
+                        System.out.println("Invalid OPcode: "+opCode);
+                        break;
+                }
+                break;
+            case 10://Vector Data processing with 2 operands and an immediate (vd = v1 * 3)
+                r_d = decoded.rd;
+                r_1 = decoded.r1;
+                r_2 = decoded.imm;
+                len = instruction.getVectorLength();//number of elements
+                v1 = new int[len];
+                readVector(r_1, v1, len);
+
+                switch (opCode) {
+                    case 0: // Add
+                    case 1: // Subtract
+                    case 2: // Multiply
+                    case 4: // Divide(Not the processor's job to catch the dividing by zero error)
+                        kernels.lanewise(opCode, v1, r_2, v1, len);
+                        instruction.vectorSaveToWriteBack(r_d, v1, true);
+                        break;
+                    default:
+                        System.out.println("Invalid OPcode: "+opCode);
+                        break;
+                }
+                break;
+            case 7:
+                //Avoiding the below exception for branch
+                break;
+            default:
+                System.out.println("Invalid Type code: " + type);
+                break;
+        }
+    }
+
+    // Finishes a register indirect instruction once its memory operands are read (op2 is the register value for type 2)
+    public void executeIndirect(Instruction instruction, Instruction.AddressPair ap, int op1, int op2) {
+        switch(ap.opcode){
+            case 0://Add
+                instruction.saveToWriteBack(ap.destination, op1 + op2, true);
+                break;
+            case 1://Subtract
+                instruction.saveToWriteBack(ap.destination, op1 - op2 , true);
+                break;
+            case 2://Multiply
+                instruction.saveToWriteBack(ap.destination, op1 * op2, true);
+                break;
+            case 4://Divide
+                instruction.saveToWriteBack(ap.destination, op1 / op2 , true);
+                break;
+            case 8://Mod
+                instruction.saveToWriteBack(ap.destination, op1 % op2 , true);
+                break;
+            case 12://Compare
+                int cmp = compare(op1, op2);
+                instruction.saveToWriteBack(13, cmp, true);
+                break;
+        }
+    }
+
+    // Returns the address of the next instruction once a branch reaches Memory Access, nextPC is the address after the branch
+    // CND and LR go through the bypass too, so an out of order engine can resolve a branch before its producers commit
+    public int resolveBranch(Instruction instruction, int nextPC) {
+        int cond = instruction.getCondCode();
+        if(cond != 7) {
+            // If true, branch to PC, else do nothing
+            if (instruction.checkCond(read(13)))
+                return nextPC + instruction.getDecoded().imm - 1;
+        } else { //looping back
+            return read(14);
+        }
+
+        return nextPC;
+    }
+
+    public void writeBack(Instruction instruction) {
+        for (Instruction.AddressValuePair avp: instruction.getAVPsToWriteBack(true)) {
+            int opCode = instruction.getOpCode();
+            int type = instruction.getType();
+
+            if (instruction.appendsToVector()) { // Append immediate for vectors(sort of)
+                vectorRegisters.append(avp.address, avp.value);
+                continue;
+            }
+
+            registers.set(avp.address, avp.value);
+            if (instruction.setsVectorLength())
+                vectorRegisters.setVectorLength(avp.value);
+        }
+        for (Instruction.VectorValuePair vp: instruction.getVPtoWriteBack(true)) {
+            vectorRegisters.set(vp.address, vp.value, vp.vlen);
+        }
+    }
+
+    private int read(int register) {
+        for (int p = bypass.size() - 1; p >= 0; p--) {
+            Instruction producer = bypass.get(p);
+            if (producer.appendsToVector()) continue;
+
+            ArrayList<Instruction.AddressValuePair> results = producer.getAVPsToWriteBack(true);
+            for (int i = results.size() - 1; i >= 0; i--)
+                if (results.get(i).address == register)
+                    return results.get(i).value;
+        }
+
+        return registers.get(register);
+    }
+
+    // Where each element of a strided (base + i * stride register) or indexed (base + index vector element) load/store is
+    private int[] elementAddresses(Instruction instruction, int base, int r_2) {
+        int len = instruction.getVectorLength();
+        int[] addresses = new int[len];
+
+        if (instruction.getAddressing() == DecodedInstruction.STRIDED) {
+            int stride = read(r_2);
+            for (int element = 0; element < len; element++)
+                addresses[element] = base + element * stride;
+        } else {
+            readVector(r_2, addresses, len);
+            for (int element = 0; element < len; element++)
+                addresses[element] += base;
+        }
+
+        return addresses;
+    }
+
+    // VL as the youngest SETVL forwarded to this instruction set it, the register otherwise
+    private int readVectorLength() {
+        for (int p = bypass.size() - 1; p >= 0; p--)
+            if (bypass.get(p).setsVectorLength())
+                return bypass.get(p).getAVPsToWriteBack(true).get(0).value;
+
+        return vectorRegisters.getVectorLength();
+    }
+
+    // A forwarded vector only replaces its first vlen elements, like VectorRegisters.set
+    private Instruction.VectorValuePair forwardedVector(int register) {
+        for (int p = bypass.size() - 1; p >= 0; p--) {
+            ArrayList<Instruction.VectorValuePair> results = bypass.get(p).getVPtoWriteBack(true);
+            for (int i = results.size() - 1; i >= 0; i--)
+                if (results.get(i).address == register)
+                    return results.get(i);
+        }
+
+        return null;
+    }
+
+    private void readVector(int register, int[] dest, int count) {
+        vectorRegisters.get(register, dest, count);
+
+        Instruction.VectorValuePair forwarded = forwardedVector(register);
+        if (forwarded != null)
+            System.arraycopy(forwarded.value, 0, dest, 0, Math.min(Math.min(count, forwarded.vlen), vectorRegisters.getVectorSize()));
+    }
+
+    public static int compare(int a, int b) {
+        String binStr = "";
+
+        binStr = (a == b ? "1" : "0") + binStr; // EQ
+        binStr = (a != b ? "1" : "0") + binStr; // NE
+        binStr = (a > b ? "1" : "0") + binStr;  // GT
+        binStr = (a >= b ? "1" : "0") + binStr; // GTE
+        binStr = (a < b ? "1" : "0") + binStr;  // LT
+        binStr = (a <= b ? "1" : "0") + binStr; // LTE
+
+        return Integer.parseInt(binStr, 2);
+    }
+}
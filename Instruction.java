@@ -5,11 +5,12 @@ public class Instruction {
 
     public static int NO_COND = 0b0110;
     public static final int HALT = 0b00001111000000000000000000000000;
+    public static final int ALU = 0, VECTOR_UNIT = 1, MEMORY_PORT = 2; // What getUnit() returns
 
-    private HashMap<Integer, String> opMap;
-    private HashMap<Integer, String> opMapV;
-    private HashMap<Integer, String> condMap;
-    private final HashMap<String, Runnable> callbacks;
+    // Pipeline stage names, in order. Stages done are kept as a bit per stage
+    public static final String[] STAGES = { "Fetch", "Decode", "Execute", "Memory Access", "Write Back" };
+
+    private HashMap<String, Runnable> callbacks; // Only the threaded Pipeline waits on stages, null until it does
 
     private  ArrayList<AddressValuePair> writebackRegisters;
     private  ArrayList<AddressValuePair> writebackMem;
@@ -17,57 +18,90 @@ public class Instruction {
     private  ArrayList<VectorValuePair> vectorWritebackMem;
     private  ArrayList<AddressPair> memoryAccessRegisters;
 
-    private String binaryValue;
+    private int word;
+    private boolean hasWord = false;
+    private DecodedInstruction decoded;
     private String strValue;
     private int type = -1;
     private int opCode = -1;
     private int condCode;
     private int linkCode = -1; //Setting the link code to an invalid value
     private int vectorLength = -1;
-    private final ArrayList<Integer> params;
-    private final ArrayList<String> stagesDone;
+    private int[] elementAddresses; // Of a strided or indexed vector load/store once executed, null for unit stride
+    private int stagesDone; // Bit i set once STAGES[i] is done
+    private String lastStage;
     private int offset; // for branching, the number of lines to skip on branching
 
     public int id;
-    public final ArrayList<Integer> stallRegisters;
-    private final ArrayList<Integer> dependsOnRegisters;
+    public int pc = -1, predictedPC = -1; // Where Fetch read it from and, for a predicted branch, the address it went on from
+    public boolean speculative; // Fetched while an older branch was still unresolved
+    public long vectorStart = -1, vectorResult = -1; // Cycles a VectorUnit took it in and its last results come out
 
     public Instruction(int id) {
         this.id = id;
-        this.binaryValue = "";
         this.strValue = "";
-        this.stagesDone = new ArrayList<>();
-        this.params = new ArrayList<>();
-
-        this.callbacks = new HashMap<>();
-        callbacks.put("Fetch", null);
-        callbacks.put("Decode", null);
-        callbacks.put("Execute", null);
-        callbacks.put("Memory Access", null);
-        callbacks.put("Write Back", null);
 
         writebackRegisters = new ArrayList<>();
         writebackMem = new ArrayList<>();
         memoryAccessRegisters = new ArrayList<>();
         vectorWritebackMem = new ArrayList<>();
         vectorWritebackRegisters = new ArrayList<>();
-        stallRegisters = new ArrayList<>();
-        dependsOnRegisters = new ArrayList<>();
+    }
 
-        this.buildOpMap();
-        this.buildOpMapV();
-        this.buildCondMap();
+    // Registers read before Write Back, as a DecodedInstruction register mask (0 until decoded)
+    public int getReadMask() {
+        return decoded == null ? 0 : decoded.readMask;
     }
 
-    public boolean dependsOn(Instruction other) {
-        for (Integer reg : dependsOnRegisters)
-            if (!other.stagesDone.contains("Write Back") && other.stallRegisters.contains(reg))
-                return true;
+    // Registers written in Write Back, as a DecodedInstruction register mask (0 until decoded)
+    public int getWriteMask() {
+        return decoded == null ? 0 : decoded.writeMask;
+    }
 
-        if (isBranchingInstruction() && other.getOpCode() == 12)
-            return true;
+    // Append and vector multiply add one element to their vector register instead of writing the whole register
+    public boolean appendsToVector() {
+        return (type == 8 && opCode == 7) || (type == 9 && opCode == 2);
+    }
 
-        return false;
+    // Sum, min and max of a vector into a scalar register
+    public boolean isReduction() {
+        return type == 9 && (opCode == 8 || opCode == 9 || opCode == 10);
+    }
+
+    // Loads and register indirect instructions only have their result once Memory Access has read memory
+    public boolean resultFromMemory() {
+        return ((type == 5 || type == 8) && opCode == 13) || type == 1 || type == 2 || type == 4;
+    }
+
+    // Registers read in Memory Access rather than Execute: the vector a vector store stores, and the CND of a branch
+    public int getLateReadMask() {
+        if (type == 8 && opCode == 14)
+            return DecodedInstruction.vectorMask(decoded.rd);
+        if (type == 7)
+            return decoded.readMask;
+
+        return 0;
+    }
+
+    // Functional unit the instruction takes when it issues: loads, stores and register indirect instructions a memory port,
+    // vector arithmetic and appends a vector unit, everything else (immediate loads and branches too) an ALU
+    public int getUnit() {
+        if (type == 1 || type == 2 || type == 4 || type == 5 || (type == 6 && opCode == 14) || (type == 8 && opCode != 7))
+            return MEMORY_PORT;
+        if (type == 8 || type == 9 || type == 10)
+            return VECTOR_UNIT;
+
+        return ALU;
+    }
+
+    // Vector data processing, what goes through a VectorUnit
+    public boolean isVectorArithmetic() {
+        return type == 9 || type == 10;
+    }
+
+    // Stores write memory in Memory Access
+    public boolean writesMemory() {
+        return (type == 5 || type == 6 || type == 8) && opCode == 14;
     }
 
     public void saveToMemAccess(int add_1,int add_2,int destination, int opCode, int type){
@@ -107,27 +141,38 @@ public class Instruction {
         return inRegister ? writebackRegisters : writebackMem;
     }
 
-    public void instructionToBinaryString(int instr) {
-        this.binaryValue = Long.toBinaryString( Integer.toUnsignedLong(instr) | 0x100000000L).substring(1);
+    public void setWord(int instr) {
+        this.word = instr;
+        this.hasWord = true;
+    }
+
+    public int getWord() {
+        return word;
+    }
+
+    // Null until decode() has run
+    public DecodedInstruction getDecoded() {
+        return decoded;
     }
 
     public boolean isBranchingInstruction() {
-        try {
-            int instr = Integer.parseInt(binaryValue, 2);
-            return (instr & 0b00001111000000000000000000000000) >> 24 == 7;
-        } catch (Exception e) {
-            return false;
-        }
+        return hasWord && (word & 0b00001111000000000000000000000000) >> 24 == 7;
     }
 
     public void addCallback(String stage, Runnable r) {
-        if (stagesDone.contains(stage))
+        if ((stagesDone & stageBit(stage)) != 0) {
             r.run();
-        else
-            callbacks.put(stage, r);
+            return;
+        }
+
+        if (callbacks == null)
+            callbacks = new HashMap<>();
+        callbacks.put(stage, r);
     }
 
     public void runCallbacks(String stage) {
+        if (callbacks == null) return;
+
         Runnable r = callbacks.get(stage);
 
         if (r != null) {
@@ -138,6 +183,53 @@ public class Instruction {
 
     public int getVectorLength(){return this.vectorLength;}
 
+    // Executor fills in VL for a vector instruction that left its length out
+    public void setVectorLength(int vectorLength){this.vectorLength = vectorLength;}
+
+    // DecodedInstruction.UNIT_STRIDE, STRIDED or INDEXED for a vector load/store
+    public int getAddressing() {
+        return decoded == null ? DecodedInstruction.UNIT_STRIDE : decoded.addressing;
+    }
+
+    public int[] getElementAddresses() {
+        return elementAddresses;
+    }
+
+    public void setElementAddresses(int[] elementAddresses) {
+        this.elementAddresses = elementAddresses;
+    }
+
+    // First word and one past the last word a vector load/store from base touches (empty if it has no elements)
+    public int vectorFrom(int base) {
+        if (elementAddresses == null || elementAddresses.length == 0)
+            return base;
+
+        int from = Integer.MAX_VALUE;
+        for (int address : elementAddresses)
+            from = Math.min(from, address);
+        return from;
+    }
+
+    public int vectorTo(int base) {
+        if (elementAddresses == null || elementAddresses.length == 0)
+            return base + Math.max(0, vectorLength);
+
+        int last = Integer.MIN_VALUE;
+        for (int address : elementAddresses)
+            last = Math.max(last, address);
+        return last + 1;
+    }
+
+    // SETVL, which writes VL as well as rd
+    public boolean setsVectorLength() {
+        return (type == 0 || type == 3) && opCode == 15;
+    }
+
+    // Vector loads, stores and arithmetic whose length comes from VL
+    public boolean usesVectorLength() {
+        return decoded != null && decoded.vectorLength == 0 && (type == 9 || type == 10 || (type == 8 && opCode != 7));
+    }
+
     public int getHalt(){return this.linkCode;}
 
     public int getOffset(){
@@ -149,15 +241,20 @@ public class Instruction {
     }
 
     public void addStage(String pipStg){
-        this.stagesDone.add(pipStg);
+        this.stagesDone |= stageBit(pipStg);
+        this.lastStage = pipStg;
     }
 
-    public ArrayList<Integer> getParams(){
-        return this.params;
+    public String getLastStage(){
+        return this.lastStage;
     }
 
-    public String getLastStage(){
-        return this.stagesDone.get(stagesDone.size()-1);
+    private static int stageBit(String stage) {
+        for (int i = 0; i < STAGES.length; i++)
+            if (STAGES[i].equals(stage))
+                return 1 << i;
+
+        throw new IllegalArgumentException("Unknown pipeline stage " + stage);
     }
 
     public int getType(){
@@ -168,195 +265,26 @@ public class Instruction {
         return this.opCode;
     }
 
+    // The display string is only built when something prints the instruction
     @Override
     public String toString() {
-        return strValue.isEmpty() ? binaryValue : strValue;
+        if (!strValue.isEmpty()) return strValue;
+        if (decoded != null) return decoded.toString();
+        if (!hasWord) return "";
+
+        return Long.toBinaryString(Integer.toUnsignedLong(word) | 0x100000000L).substring(1);
     }
 
+    // Fields come from the shared decoded form of the word, so words seen before (loops) aren't parsed again.
+    // Executor reads the operands straight from getDecoded()
     public void decode() {
-        int instr = Integer.parseInt(binaryValue, 2);
-
-        this.type =   (instr & 0b00001111000000000000000000000000) >> 24;
-        this.opCode = (instr & 0b00000000111100000000000000000000) >> 20;
-
-        int r_d, r_1, r_2, imm, sign;
-
-        switch(type){
-            case 0: // Data Processing with 3 operands (rd = r1 + r2)
-                r_d = (instr & 0b00000000000001111000000000000000) >> 15;
-                r_1 = (instr & 0b00000000000000000111100000000000) >> 11;
-                r_2 = (instr & 0b00000000000000000000011110000000) >> 7;
-                condCode = (instr & 0b11110000000000000000000000000000) >> 28;
-
-                params.add(r_d);
-                params.add(r_1);
-                params.add(r_2);
-
-                stallRegisters.add(r_d);
-                dependsOnRegisters.add(r_1);
-                dependsOnRegisters.add(r_2);
-
-                this.strValue = opMap.get(opCode) + (opCode == 12 ? "" : " R" + r_d) + " R" + r_1 + " R" + r_2;
-                break;
-            case 1:// Data Processing Register Indirect(both) with 3 operands (rd = ValueAt(r1) + ValueAt(r2))
-                r_d = (instr & 0b00000000000001111000000000000000) >> 15;
-                r_1 = (instr & 0b00000000000000000111100000000000) >> 11;
-                r_2 = (instr & 0b00000000000000000000011110000000) >> 7;
-                condCode = (instr & 0b11110000000000000000000000000000) >> 28;
-
-                params.add(r_d);
-                params.add(r_1);
-                params.add(r_2);
-
-                stallRegisters.add(r_d);
-                dependsOnRegisters.add(r_1);
-                dependsOnRegisters.add(r_2);
-
-                this.strValue = opMap.get(opCode) + (opCode == 12 ? "" : " R" + r_d) + " ValAt(R" + r_1 + ") ValAt(R" + r_2+")";
-                break;
-            case 2://Data Processing Register Indirect(one) with 3 operands (rd = ValueAt(r1) + r2)
-                r_d = (instr & 0b00000000000001111000000000000000) >> 15;
-                r_1 = (instr & 0b00000000000000000111100000000000) >> 11;
-                r_2 = (instr & 0b00000000000000000000011110000000) >> 7;
-                condCode = (instr & 0b11110000000000000000000000000000) >> 28;
-
-                params.add(r_d);
-                params.add(r_1);
-                params.add(r_2);
-
-                stallRegisters.add(r_d);
-                dependsOnRegisters.add(r_1);
-                dependsOnRegisters.add(r_2);
-
-                this.strValue = opMap.get(opCode) + (opCode == 12 ? "" : " R" + r_d) + " ValAt(R" + r_1 + ") R" + r_2;
-                break;
-            case 3: // Data Processing with operand and immediate (rd = r1 + 3)
-                r_d = (instr & 0b00000000000001111000000000000000) >> 15;
-                r_1 = (instr & 0b00000000000000000111100000000000) >> 11;
-                imm = (instr & 0b00000000000000000000011111111000) >> 3;
-                condCode = (instr & 0b11110000000000000000000000000000) >> 28;
-
-                params.add(r_d);
-                params.add(r_1);
-                params.add(imm);
-
-                stallRegisters.add(r_d);
-                dependsOnRegisters.add(r_1);
-
-                this.strValue = opMap.get(opCode) + (opCode == 12 ? "" : " R" + r_d) + " R" + r_1 + " " + imm;
-                break;
-            case 4:// Data processing Indirect with 2 operands and an immediate (rd = ValueAt(r1) + 3)
-                r_d = (instr & 0b00000000000001111000000000000000) >> 15;
-                r_1 = (instr & 0b00000000000000000111100000000000) >> 11;
-                imm = (instr & 0b00000000000000000000011111111000) >> 3;
-                condCode = (instr & 0b11110000000000000000000000000000) >> 28;
-
-                params.add(r_d);
-                params.add(r_1);
-                params.add(imm);
-
-                stallRegisters.add(r_d);
-                dependsOnRegisters.add(r_1);
-
-                this.strValue = opMap.get(opCode) + (opCode == 12 ? "" : " R" + r_d) + " ValAt(R" + r_1 + ") " + imm;
-                break;
-            case 5: // Load/Store (Load value from address into rd / store value in r1 at address in rd)
-                r_d = (instr & 0b00000000000001111000000000000000) >> 15;
-                r_1 = (instr  & 0b0000000000000000111100000000000) >> 11;
-
-                params.add(r_d);
-                params.add(r_1);
-
-                dependsOnRegisters.add(r_1);
-
-                if (opCode == 13) {
-                    stallRegisters.add(r_d);
-                } else {
-                    dependsOnRegisters.add(r_d);
-                }
-
-                this.strValue = opMap.get(opCode) + " R" + r_d + " R" + r_1;
-                break;
-            case 6: // Load/Store immediate (Load 3 into register rd / Store 3 into the address in rd)
-                r_d = (instr & 0b00000000000001111000000000000000) >> 15;
-                imm = (instr  & 0b00000000000000000111111111111000) >> 3;
-
-                params.add(r_d);
-                params.add(imm);
-
-                if (opCode == 13)
-                    stallRegisters.add(r_d);
-                else
-                    dependsOnRegisters.add(r_d);
-
-                this.strValue = opMap.get(opCode) + " R" + r_d + " " + imm;
-                break;
-            case 7://Branch Instruction
-                condCode = (instr & 0b11110000000000000000000000000000) >> 28; //Condition
-                sign =     (instr & 0b00000000010000000000000000000000) >> 22;
-                r_1 =      (instr & 0b00000000001111111111111111111111); //Offset/number of lines of code to jump
-                linkCode = (instr & 0b00000000100000000000000000000000) >> 23;
-                r_1 *= (sign == 1 ? -1 : 1);
-                params.add(r_1);
-
-                strValue = "BRANCH " + r_1 + (condCode == NO_COND ? "" : " IF " + condMap.get(condCode));
-                break;
-            case 8: // Vector Load/Store Load vector from address into rd / store vector in rd into address)
-                r_d = (instr & 0b00000000000001111000000000000000) >> 15;
-                r_1 = (instr  & 0b0000000000000000111100000000000) >> 11;
-                vectorLength = (instr  & 0b0000000000000000000011111000000) >> 6;
-
-                params.add(r_d);
-                params.add(r_1);
-
-                if (opCode != 7) // Immediate if append
-                    dependsOnRegisters.add(r_1 + 100);
-
-                if (opCode == 13 || opCode == 7) {
-                    stallRegisters.add(r_d + 100);
-                } else if (opCode == 14) {
-                    dependsOnRegisters.add(r_d + 100);
-                }
-
-                this.strValue = opMapV.get(opCode) + " V" + r_d + (opCode == 7 ? " " : (opCode == 13 ? " R" : " V")) + r_1;
-                break;
-            case 9: // Vector Data Processing with 3 operands (Vd = V1 + V2)
-                r_d = (instr & 0b00000000000001111000000000000000) >> 15;
-                r_1 = (instr & 0b00000000000000000111100000000000) >> 11;
-                r_2 = (instr & 0b00000000000000000000011110000000) >> 7;
-                condCode = (instr & 0b11110000000000000000000000000000) >> 28;
-                vectorLength = (instr & 0b00000000000000000000000001111100) >> 2;
-
-                params.add(r_d);
-                params.add(r_1);
-                params.add(r_2);
-
-                stallRegisters.add(r_d + 100);
-                dependsOnRegisters.add(r_1 + 100);
-                dependsOnRegisters.add(r_2 + 100);
-
-                this.strValue = opMapV.get(opCode) + (opCode == 12 ? "" : " V" + r_d) + " V" + r_1 + " V" + r_2;
-                break;
-            case 10: // Vector Data Processing with operand and immediate (rd = r1 + 3)
-                r_d = (instr & 0b00000000000001111000000000000000) >> 15;
-                r_1 = (instr & 0b00000000000000000111100000000000) >> 11;
-                imm = (instr & 0b00000000000000000000011111100000) >> 5;
-                condCode =     (instr & 0b11110000000000000000000000000000) >> 28;
-                vectorLength = (instr & 0b00000000000000000000000000011111);
-
-                params.add(r_d);
-                params.add(r_1);
-                params.add(imm);
-
-                stallRegisters.add(r_d + 100);
-                dependsOnRegisters.add(r_1 + 100);
-
-                this.strValue = opMapV.get(opCode) + (opCode == 12 ? "" : " V" + r_d) + " V" + r_1 + " " + imm;
-                break;
-            default:
-                this.strValue = "INVALID TYPE";
-                break;
-        }
+        decoded = DecodedInstruction.of(word);
+
+        this.type = decoded.type;
+        this.opCode = decoded.opCode;
+        this.condCode = decoded.cond;
+        this.linkCode = decoded.link;
+        this.vectorLength = decoded.vectorLength;
     }
 
     public boolean checkIfHalt(int instr) {
@@ -368,47 +296,6 @@ public class Instruction {
         return false;
     }
 
-    private void buildOpMap() {
-        opMap = new HashMap<>();
-        opMap.put(0, "ADD");
-        opMap.put(1, "SUBTRACT");
-        opMap.put(2, "MULTIPLY");
-        opMap.put(4, "DIVIDE");
-        opMap.put(8, "MODULO");
-        opMap.put(3, "AND");
-        opMap.put(5, "OR");
-        opMap.put(9, "NOT");
-        opMap.put(10, "XOR");
-        opMap.put(12, "COMPARE");
-        opMap.put(6, "SET FLAG");
-        opMap.put(7, "SHIFT");
-        opMap.put(11, "SWAP");
-        opMap.put(13, "LOAD");
-        opMap.put(14, "STORE");
-        opMap.put(7, "BRANCH");
-    }
-
-    private void buildOpMapV() {
-        opMapV = new HashMap<>();
-        opMapV.put(0, "ADD");
-        opMapV.put(1, "SUBTRACT");
-        opMapV.put(2, "MULTIPLY");
-        opMapV.put(4, "DIVIDE");
-        opMapV.put(13, "LOAD");
-        opMapV.put(14, "STORE");
-        opMapV.put(7, "APPEND");
-    }
-
-    private void buildCondMap() {
-        condMap = new HashMap<>();
-        condMap.put(0, "EQ");
-        condMap.put(1, "NE");
-        condMap.put(2, "GT");
-        condMap.put(3, "GTE");
-        condMap.put(4, "LT");
-        condMap.put(5, "LTE");
-    }
-
     public boolean checkCond(int cmp) {
         if (condCode == NO_COND) return true;
         return ((cmp >> condCode) & 1) == 1;
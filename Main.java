@@ -21,20 +21,18 @@ import javafx.stage.Stage;
 import javafx.util.Callback;
 
 import java.awt.*;
-import java.io.BufferedReader;
-import java.io.FileReader;
 import java.io.IOException;
 import java.text.ParseException;
 
-public class Main extends Application {
-    private static Main instance = null;
+public class Main extends Application implements SimulationListener {
     public int cycles;
 
+    private Simulator simulator;
     private Memory RAM;
     private Cache cache;
     private Registers registers;
     private VectorRegisters vectorRegisters;
-    private Pipeline pipeline;
+    private PipelineEngine pipeline;
 
     private TableView<VectorRegisters.VRData> vecTable;
     private TableView<Cache.LineData> cacheTable;
@@ -52,7 +50,7 @@ public class Main extends Application {
 
     @Override
     public void start(Stage stage) {
-        instance = this;
+        Simulation.setListener(this);
 
         Scene scene = new Scene(new Group());
         stage.setTitle("Demo");
@@ -88,11 +86,12 @@ public class Main extends Application {
     }
 
     public void setup() {
-        RAM = new Memory(8000, 4);
-        cache = new Cache(16, RAM);
-        registers = new Registers(16);
-        vectorRegisters = new VectorRegisters(16,16);
-        pipeline = new Pipeline(registers, vectorRegisters);
+        simulator = new Simulator(true);
+        RAM = simulator.getRAM();
+        cache = simulator.getCache();
+        registers = simulator.getRegisters();
+        vectorRegisters = simulator.getVectorRegisters();
+        pipeline = simulator.getPipeline();
 
         if (cacheTable != null) {
             cacheTable.setItems(cache.lineData);
@@ -125,36 +124,7 @@ public class Main extends Application {
     }
 
     public String loadInstructions(int programAddress, String fileName, boolean useCache, boolean isBinary) throws IOException {
-        int addr = programAddress;
-        StringBuilder programText = new StringBuilder();
-
-        try(BufferedReader br = new BufferedReader(new FileReader(fileName))) {
-            for(String line; (line = br.readLine()) != null; ) {
-                programText.append((programText.length() == 0) ? line : "\n" + line);
-
-                int instr = isBinary ? Integer.parseInt(line, 2) : Assembler.toBinary(line);
-                int out = Memory.WAIT;
-
-                while (out == Memory.WAIT) {
-                    out = (useCache ? cache : RAM).write("Main", addr, instr);
-                }
-
-                addr += 1;
-            }
-        }
-
-        // Write END (-1) after program if not there
-        if (!programText.toString().endsWith("END")) {
-            int out = Memory.WAIT;
-            while (out == Memory.WAIT) {
-                out = (useCache ? cache : RAM).write("Main", addr, Instruction.HALT);
-            }
-
-            programText.append((programText.length() == 0) ? "END" : "\n" + "END");
-
-        }
-
-        return programText.toString();
+        return simulator.loadInstructions(programAddress, fileName, useCache, isBinary);
     }
 
     private Node getMainUI() {
@@ -194,8 +164,8 @@ public class Main extends Application {
                     System.out.println("Finished running " + fileName);
 
                     Platform.runLater(() -> {
-                        Main.print("~=~=~=~=~=~=~=~=~=~=~");
-                        Main.print("Finished running " + fileName);
+                        print("~=~=~=~=~=~=~=~=~=~=~");
+                        print("Finished running " + fileName);
                         memoryTable.refresh();
                         programTimeLabel.setText(fileName + " ran in " + cycles  + " cycles");
                     });
@@ -416,27 +386,30 @@ public class Main extends Application {
         return vb;
     }
 
-    public static void cycle() {
-        if (instance == null) return;
-
-        instance.cycles += 1;
+    @Override
+    public void cycle() {
+        cycles += 1;
     }
 
-    public static void print(String output) {
-        if (instance == null) return;
+    @Override
+    public void cycles(long count) {
+        cycles += count;
+    }
 
-        instance.consoleOutput = output + (instance.consoleOutput.isEmpty() ? "" : "\n") + instance.consoleOutput;
+    @Override
+    public void print(String output) {
+        consoleOutput = output + (consoleOutput.isEmpty() ? "" : "\n") + consoleOutput;
         Platform.runLater(() -> {
-            instance.consoleTxt.setText(instance.consoleOutput);
+            consoleTxt.setText(consoleOutput);
         });
     }
 
-    public static void refreshMemoryTable() {
-        if (instance == null) return;
-        if (instance.memoryTable == null) return;
+    @Override
+    public void refreshMemoryTable() {
+        if (memoryTable == null) return;
 
         Platform.runLater(() -> {
-            instance.memoryTable.refresh();
+            memoryTable.refresh();
         });
     }
-}
\ No newline at end of file
+}
@@ -14,63 +14,80 @@ public class Memory {
     private int[][] data; // Data is a 2d array of lines, each with LINE_LENGTH words
     private int delay = 100;
 
-    private String currentlyWaiting = "";
-    private int currWait = 0;
-
-    public Memory(int numLines, int lineLength) {
-        this.size = numLines * lineLength;
-        data = new int[numLines][lineLength];
-
-        ArrayList<LineData> lineList = new ArrayList<>();
-
-        for (int i = 0; i < data.length; i++) {
-            for (int j = 0; j < data[i].length; j++) {
-                data[i][j] = 0;
-            }
-
-            lineList.add(new LineData(i * 4));
+    private boolean pipelined = false;
+    private final ArrayList<Request> requests = new ArrayList<>(); // Outstanding, only ever a handful
+    private long busyUntil = 0; // When the last request queued on a non-pipelined memory finishes
+
+    private static class Request {
+        public final String callingFrom;
+        public final int address;
+        public final long readyAt;
+
+        public Request(String callingFrom, int address, long readyAt) {
+            this.callingFrom = callingFrom;
+            this.address = address;
+            this.readyAt = readyAt;
         }
+    }
 
-        lineData = FXCollections.observableList(lineList);
+    public Memory(int numLines, int lineLength) {
+        this(numLines, lineLength, 100);
     }
 
     public Memory(int numLines, int lineLength, int delay) {
+        this(numLines, lineLength, delay, true);
+    }
+
+    // showUI = false skips the per line table properties, used when running headless
+    public Memory(int numLines, int lineLength, int delay, boolean showUI) {
         this.lineLength = lineLength;
         this.delay = delay;
         this.size = numLines * lineLength;
         data = new int[numLines][lineLength];
-        ArrayList<LineData> lineList = new ArrayList<>();
 
-        for (int i = 0; i < data.length; i++) {
-            for (int j = 0; j < data[i].length; j++) {
-                data[i][j] = 0;
-            }
-
-            lineList.add(new LineData(i * 4));
-        }
+        if (showUI) {
+            ArrayList<LineData> lineList = new ArrayList<>();
 
-        lineData = FXCollections.observableList(lineList);
+            for (int i = 0; i < data.length; i++)
+                lineList.add(new LineData(i * lineLength));
 
-    }
-
-    private boolean needsToWait(String callingFrom, int address) {
-        String waitTag = callingFrom + address;
-
-        if (currentlyWaiting.isEmpty()) {
-            currWait = delay;
-            currentlyWaiting = waitTag;
+            lineData = FXCollections.observableList(lineList);
         }
+    }
 
-        if (currentlyWaiting.equals(waitTag)) {
-            if (currWait == 0) {
-                currentlyWaiting = "";
-                return false;
+    // The first poll of a request schedules its completion on the simulation clock and every poll until then waits.
+    // Pipelined memories start every request as it arrives, so requests overlap. Otherwise requests are served one
+    // at a time in the order they arrive, each starting when the one before it finishes.
+    // Polls only compare against the outstanding requests, so a long delay costs the same host work as a short one
+    protected synchronized boolean needsToWait(String callingFrom, int address) {
+        if (delay == 0)
+            return false;
+
+        long now = Simulation.now();
+        Request request = null;
+
+        for (int i = 0; i < requests.size(); i++) {
+            Request r = requests.get(i);
+            if (r.address == address && r.callingFrom.equals(callingFrom)) {
+                request = r;
+                break;
             }
+        }
 
-            currWait--;
+        if (request == null) {
+            long readyAt = (pipelined ? now : Math.max(now, busyUntil)) + delay;
+            if (!pipelined)
+                busyUntil = readyAt;
+
+            request = new Request(callingFrom, address, readyAt);
+            requests.add(request);
+            Simulation.schedule(readyAt);
+        } else if (now >= request.readyAt) {
+            requests.remove(request);
+            return false;
         }
 
-        Main.cycle();
+        Simulation.waitUntil(request.readyAt);
         return true;
     }
 
@@ -104,11 +121,12 @@ public class Memory {
         }
 
         address = address % size; // Wrap around if needed
-        int offset = address % 4;
+        int offset = address % lineLength;
         int lineNum = (address - offset)  / lineLength;
 
         data[lineNum][offset] = value;
-        lineData.get(lineNum).write(offset, value);
+        if (lineData != null)
+            lineData.get(lineNum).write(offset, value);
 
         return 1;
     }
@@ -118,19 +136,59 @@ public class Memory {
             return Memory.WAIT;
         }
 
-        data[lineNum] = line;
-        lineData.get(lineNum).writeLine(line);
+        System.arraycopy(line, 0, data[lineNum], 0, lineLength);
+        if (lineData != null)
+            lineData.get(lineNum).writeLine(line);
+
+        return 1;
+    }
+
+    // Reads count consecutive words starting at address as one access
+    public int[] getBlock(String callingFrom, int address, int count) {
+        if (needsToWait(callingFrom, address)) {
+            return new int[]{Memory.WAIT};
+        }
+
+        int[] block = new int[count];
+        for (int i = 0; i < count; i++) {
+            int wordAddress = (address + i) % size; // Wrap around if needed
+            block[i] = data[wordAddress / lineLength][wordAddress % lineLength];
+        }
+
+        return block;
+    }
+
+    // Writes the first count values to consecutive words starting at address as one access
+    public int writeBlock(String callingFrom, int address, int[] values, int count) {
+        if (needsToWait(callingFrom, address)) {
+            return Memory.WAIT;
+        }
 
+        postBlock(address, values, count);
         return 1;
     }
 
-    public int writeLinePartial(String callingFrom,int lineNum,int[] line, int eleNum){
-        if (needsToWait(callingFrom, lineNum))
+    // Writes the values marked written to the words from address onwards as one access, the words in between keep theirs
+    // (a strided or scattered store covering only some of a line)
+    public int writeMasked(String callingFrom, int address, int[] values, boolean[] written) {
+        if (needsToWait(callingFrom, address)) {
             return Memory.WAIT;
-        for(int i = 0; i < eleNum;i++){
-            data[lineNum][i] = line[i];
-            lineData.get(lineNum).write(i, line[i]);
         }
+
+        for (int i = 0; i < values.length; ) {
+            if (!written[i]) {
+                i++;
+                continue;
+            }
+
+            int end = i;
+            while (end < values.length && written[end])
+                end++;
+
+            postBlock(address + i, Arrays.copyOfRange(values, i, end), end - i);
+            i = end;
+        }
+
         return 1;
     }
 
@@ -145,7 +203,8 @@ public class Memory {
 
     public void writeSingleValueInCache(int tag, int offset, int value) {
         data[tag][offset] = value;
-        lineData.get(tag).write(offset, value);
+        if (lineData != null)
+            lineData.get(tag).write(offset, value);
     }
 
     //Method of direct access during write back since the cache line data is known
@@ -166,17 +225,17 @@ public class Memory {
     public void printData() {
         for (int i = 0; i < data.length; i++) {
             int[] row = data[i];
-            System.out.println((i * 4) +  ": " + Arrays.toString(row));
+            System.out.println((i * lineLength) +  ": " + Arrays.toString(row));
         }
     }
 
     public void printData(int fromAddr, int toAddr) {
         if (fromAddr == -1) fromAddr = 0;
-        if (toAddr == -1) toAddr = data.length * 4;
+        if (toAddr == -1) toAddr = data.length * lineLength;
 
-        for (int i = fromAddr / 4; i < toAddr / 4 + 1; i++) {
+        for (int i = fromAddr / lineLength; i < toAddr / lineLength + 1; i++) {
             int[] row = data[i];
-            System.out.println((i * 4) +  ": " + Arrays.toString(row));
+            System.out.println((i * lineLength) +  ": " + Arrays.toString(row));
         }
     }
 
@@ -184,6 +243,30 @@ public class Memory {
         return size;
     }
 
+    public int getLineLength(){
+        return lineLength;
+    }
+
+    // Requests overlap instead of queueing behind each other
+    public void setPipelined(boolean pipelined){
+        this.pipelined = pipelined;
+    }
+
+    // True if callers should poll all their outstanding accesses each cycle rather than one at a time
+    public boolean isNonBlocking(){
+        return pipelined;
+    }
+
+    // Writes without waiting, for write backs nothing waits on (the write is still seen by every later access)
+    public void postBlock(int address, int[] values, int count){
+        for (int i = 0; i < count; i++) {
+            int wordAddress = (address + i) % size; // Wrap around if needed
+            data[wordAddress / lineLength][wordAddress % lineLength] = values[i];
+            if (lineData != null)
+                lineData.get(wordAddress / lineLength).write(wordAddress % lineLength, values[i]);
+        }
+    }
+
     // Holds cache line data to display in table
     public class LineData {
         public SimpleIntegerProperty lineAddr, word1, word2, word3, word4;
@@ -218,7 +301,7 @@ public class Memory {
                     break;
             }
 
-            Main.refreshMemoryTable();
+            Simulation.refreshMemoryTable();
         }
 
         public int getLineAddr() {
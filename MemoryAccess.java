@@ -0,0 +1,253 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+
+// The memory reads and writes one instruction does in Memory Access, split into requests that can each wait across polls.
+// A blocking memory gets them one at a time in order, a non-blocking one (a cache with MSHRs) has every outstanding request
+// polled each time so their misses overlap. A Done request waits until everything before it has finished
+public class MemoryAccess {
+    private final Memory memory;
+    private final ArrayList<Request> requests = new ArrayList<>();
+
+    public MemoryAccess(String callingFrom, Instruction instruction, Memory memory, Executor executor, VectorRegisters vectorRegisters) {
+        this.memory = memory;
+
+        //For Indirect access
+        for (Instruction.AddressPair ap : instruction.getAPtoMemAccess()) {
+            if (ap.typ == 1) {
+                int[] ops = new int[2];
+                requests.add(new Read(callingFrom, ap.address_1, value -> ops[0] = value));
+                requests.add(new Read(callingFrom, ap.address_2, value -> ops[1] = value));
+                requests.add(new Done(() -> executor.executeIndirect(instruction, ap, ops[0], ops[1])));
+            } else if (ap.typ == 2) {
+                requests.add(new Read(callingFrom, ap.address_1, value -> executor.executeIndirect(instruction, ap, value, ap.address_2)));
+            }
+        }
+
+        for (Instruction.AddressValuePair avp : instruction.getAVPsToWriteBack(false)) {
+            if (avp.typ == 5 && avp.opcode == 13) { //Loading from memory at a given register
+                requests.add(new Read(callingFrom, avp.value, value -> instruction.saveToWriteBack(avp.address, value, true)));
+            } else if (avp.typ == 8 && instruction.getElementAddresses() != null) { //Strided or indexed vector load/store
+                addElementRequests(callingFrom, instruction, avp, vectorRegisters);
+            } else if (avp.typ == 8) { //Vector load/store, one request per memory line the vector touches
+                int len = instruction.getVectorLength();
+                int start = avp.value;
+                int lineLength = memory.getLineLength();
+                int[] vd = new int[len];
+
+                if (avp.opcode != 13) //Making a deep copy of the register
+                    vectorRegisters.get(avp.address, vd, len);
+
+                for (int j = 0; j < len; ) {
+                    int from = j;
+                    int count = Math.min(len - j, lineLength - Math.floorMod(start + j, lineLength));
+
+                    if (avp.opcode == 13)
+                        requests.add(new BlockRead(callingFrom, start + from, count, block -> System.arraycopy(block, 0, vd, from, count)));
+                    else
+                        requests.add(new BlockWrite(callingFrom, start + from, Arrays.copyOfRange(vd, from, from + count)));
+
+                    j += count;
+                }
+
+                if (avp.opcode == 13)
+                    requests.add(new Done(() -> instruction.vectorSaveToWriteBack(avp.address, vd, true)));
+            } else {
+                requests.add(new Write(callingFrom, avp.address, avp.value));
+            }
+        }
+    }
+
+    // The elements of a strided or indexed load/store coalesced into one request per memory line: a load reads the words
+    // from its first to its last element on the line in one go, a store writes its elements' words in one go (masked, so
+    // the words between them keep their values without being read)
+    private void addElementRequests(String callingFrom, Instruction instruction, Instruction.AddressValuePair avp, VectorRegisters vectorRegisters) {
+        int[] addresses = instruction.getElementAddresses();
+        int len = addresses.length;
+        int lineLength = memory.getLineLength();
+        int[] vd = new int[len];
+
+        if (avp.opcode != 13)
+            vectorRegisters.get(avp.address, vd, len);
+
+        // Elements by line, lines in the order of their first element
+        LinkedHashMap<Integer, ArrayList<Integer>> lines = new LinkedHashMap<>();
+        for (int element = 0; element < len; element++)
+            lines.computeIfAbsent(Math.floorDiv(addresses[element], lineLength), line -> new ArrayList<>()).add(element);
+
+        for (ArrayList<Integer> elements : lines.values()) {
+            int from = Integer.MAX_VALUE, to = Integer.MIN_VALUE;
+            for (int element : elements) {
+                from = Math.min(from, addresses[element]);
+                to = Math.max(to, addresses[element] + 1);
+            }
+
+            int start = from;
+            if (avp.opcode == 13) {
+                requests.add(new BlockRead(callingFrom, start, to - start, block -> {
+                    for (int element : elements)
+                        vd[element] = block[addresses[element] - start];
+                }));
+            } else {
+                int[] values = new int[to - start];
+                boolean[] written = new boolean[values.length];
+                int words = 0;
+                for (int element : elements) { // A later element to the same word wins, like storing them in order
+                    int offset = addresses[element] - start;
+                    values[offset] = vd[element];
+                    if (!written[offset]) {
+                        written[offset] = true;
+                        words++;
+                    }
+                }
+
+                requests.add(words == values.length ? new BlockWrite(callingFrom, start, values) : new MaskedWrite(callingFrom, start, values, written));
+            }
+        }
+
+        if (avp.opcode == 13)
+            requests.add(new Done(() -> instruction.vectorSaveToWriteBack(avp.address, vd, true)));
+    }
+
+    // Returns true once every request has finished
+    public boolean poll() {
+        boolean overlap = memory.isNonBlocking();
+
+        for (int i = 0; i < requests.size(); ) {
+            Request request = requests.get(i);
+
+            if (request instanceof Done && i > 0)
+                return false;
+
+            if (request.poll()) {
+                requests.remove(i);
+                continue;
+            }
+
+            if (!overlap)
+                return false;
+            i++;
+        }
+
+        return requests.isEmpty();
+    }
+
+    private interface Request {
+        // Tries the access once, returns false if memory asked to wait
+        boolean poll();
+    }
+
+    private class Read implements Request {
+        private final String callingFrom;
+        private final int address;
+        private final IntConsumer onRead;
+
+        public Read(String callingFrom, int address, IntConsumer onRead) {
+            this.callingFrom = callingFrom;
+            this.address = address;
+            this.onRead = onRead;
+        }
+
+        @Override
+        public boolean poll() {
+            int value = memory.read(callingFrom, address);
+            if (value == Memory.WAIT) return false;
+
+            onRead.accept(value);
+            return true;
+        }
+    }
+
+    private class BlockRead implements Request {
+        private final String callingFrom;
+        private final int address, count;
+        private final Consumer<int[]> onRead;
+
+        public BlockRead(String callingFrom, int address, int count, Consumer<int[]> onRead) {
+            this.callingFrom = callingFrom;
+            this.address = address;
+            this.count = count;
+            this.onRead = onRead;
+        }
+
+        @Override
+        public boolean poll() {
+            int[] block = memory.getBlock(callingFrom, address, count);
+            if (block[0] == Memory.WAIT) return false;
+
+            onRead.accept(block);
+            return true;
+        }
+    }
+
+    private class Write implements Request {
+        private final String callingFrom;
+        private final int address;
+        private final int value;
+
+        public Write(String callingFrom, int address, int value) {
+            this.callingFrom = callingFrom;
+            this.address = address;
+            this.value = value;
+        }
+
+        @Override
+        public boolean poll() {
+            return memory.write(callingFrom, address, value) != Memory.WAIT;
+        }
+    }
+
+    private class BlockWrite implements Request {
+        private final String callingFrom;
+        private final int address;
+        private final int[] values;
+
+        public BlockWrite(String callingFrom, int address, int[] values) {
+            this.callingFrom = callingFrom;
+            this.address = address;
+            this.values = values;
+        }
+
+        @Override
+        public boolean poll() {
+            return memory.writeBlock(callingFrom, address, values, values.length) != Memory.WAIT;
+        }
+    }
+
+    // Writes only the words of a block that are marked written
+    private class MaskedWrite implements Request {
+        private final String callingFrom;
+        private final int address;
+        private final int[] values;
+        private final boolean[] written;
+
+        public MaskedWrite(String callingFrom, int address, int[] values, boolean[] written) {
+            this.callingFrom = callingFrom;
+            this.address = address;
+            this.values = values;
+            this.written = written;
+        }
+
+        @Override
+        public boolean poll() {
+            return memory.writeMasked(callingFrom, address, values, written) != Memory.WAIT;
+        }
+    }
+
+    // Runs once every request before it has finished
+    private static class Done implements Request {
+        private final Runnable onDone;
+
+        public Done(Runnable onDone) {
+            this.onDone = onDone;
+        }
+
+        @Override
+        public boolean poll() {
+            onDone.run();
+            return true;
+        }
+    }
+}
@@ -0,0 +1,636 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+
+// Out of order engine, one loop iteration per simulated cycle like SteppedPipeline and run through the same run().
+// Fetch fills a buffer of up to width instructions. Rename decodes them, tags every register each one reads with the
+// youngest older instruction still in flight that writes it (the rename table), and puts them in the reorder buffer,
+// the issue queue and, for loads and stores, the load/store queue. Every cycle the oldest instructions in the issue
+// queue whose producers have their results issue and execute, reading those results from the producers' pending write
+// backs (the renamed registers), so nothing waits behind an older instruction it doesn't depend on. Loads go to memory
+// once every older store knows its address and none of those overlaps what they read; stores write memory when they
+// commit. Commit retires up to width instructions a cycle from the head of the reorder buffer in program order, and
+// only then are Registers/VectorRegisters written, so a mispredicted branch (resolved when it executes) just drops
+// everything behind it. A fault (dividing by zero) is thrown when its instruction commits, a wrong path one never is.
+// Appends still wait for their producer to commit, their result is the old register plus one element.
+// With a VectorUnit vector arithmetic only issues when the unit can take it and its result is ready once its last
+// group is out, a vector instruction reading it can chain onto it. Vector loads and stores overlap with it
+public class OutOfOrderPipeline implements PipelineEngine {
+    private static final String[] STAGE_NAMES = Instruction.STAGES;
+
+    // An instruction from Fetch until it commits
+    private static class Entry {
+        final Instruction instruction;
+        boolean halt;
+        final ArrayList<Entry> producers = new ArrayList<>(); // Youngest older writer of each register it reads, oldest first
+        boolean executed; // A load or store knows its address from here on
+        boolean done; // Result ready (a store only needs to commit)
+        long doneCycle;
+        boolean committed;
+        MemoryAccess memoryAccess;
+        RuntimeException fault;
+
+        Entry(Instruction instruction) {
+            this.instruction = instruction;
+        }
+    }
+
+    private final Registers registers;
+    private final VectorRegisters vectorRegisters;
+    private final Executor executor;
+    private Memory instructionMemory;
+    private Memory memory;
+
+    private int width = 1, alus = 1, vectorUnits = 1, memoryPorts = 1;
+    private int robSize = 32, issueQueueSize = 16, loadStoreQueueSize = 16;
+    private int slots; // Width of this run, 1 without pipelining
+    private VectorUnit vectorUnit; // null finishes vector arithmetic in the cycle it issues
+
+    private final ArrayDeque<Entry> fetchBuffer = new ArrayDeque<>();
+    private final ArrayDeque<Entry> reorderBuffer = new ArrayDeque<>();
+    private final ArrayList<Entry> issueQueue = new ArrayList<>();
+    private final ArrayList<Entry> loadStoreQueue = new ArrayList<>();
+    private final Entry[] renameTable = new Entry[32]; // Youngest writer in flight per DecodedInstruction register bit
+    private final ArrayList<MemoryAccess> draining = new ArrayList<>(); // Squashed loads still waiting on memory
+    private final ArrayList<Instruction> bypass = new ArrayList<>();
+    private final ArrayList<Entry> olderStores = new ArrayList<>();
+
+    private boolean usePipeline;
+    private boolean halted;
+    private boolean fetchStopped; // Fetched a HALT, nothing past it is fetched unless a branch in front of it was mispredicted
+    private Instruction unresolvedBranch; // Fetch waits until this branch has executed
+    private BranchPredictor predictor; // null stalls Fetch at every branch
+    private BranchTargetBuffer btb;
+    private int abandonedFetch = -1; // Wrong path address Fetch was waiting on, it has to arrive before fetching goes on
+    private boolean fetchWaiting;
+    private final int[] fetched = new int[1]; // What fetchWords returns when single issue
+    private int instrID;
+    private long cycles;
+    private long instructionCount;
+    private boolean progress; // Whether anything got done this cycle
+
+    private long branches, mispredictions, squashed;
+    private long[] issued; // Cycles that issued each number of instructions
+    private long robFull, issueQueueFull, loadStoreQueueFull; // Cycles rename stopped because the structure was full
+    private long loadsHeld; // Times a load that could go to memory waited on an older store
+
+    public OutOfOrderPipeline(Registers registers, VectorRegisters vectorRegisters) {
+        this.registers = registers;
+        this.vectorRegisters = vectorRegisters;
+        this.executor = new Executor(registers, vectorRegisters);
+    }
+
+    // Takes effect on the next run. Instructions fetched, renamed, issued and committed per cycle (1 to 8), and how many
+    // of those issuing in the same cycle can use an ALU, a vector unit and a memory port
+    public void setWidth(int width, int alus, int vectorUnits, int memoryPorts) {
+        if (width < 1 || width > 8)
+            throw new IllegalArgumentException("Width has to be between 1 and 8: " + width);
+        if (alus < 1 || vectorUnits < 1 || memoryPorts < 1)
+            throw new IllegalArgumentException("Need at least one of each unit: " + alus + " ALUs, " + vectorUnits + " vector units, " + memoryPorts + " memory ports");
+
+        this.width = width;
+        this.alus = alus;
+        this.vectorUnits = vectorUnits;
+        this.memoryPorts = memoryPorts;
+    }
+
+    // Takes effect on the next run: entries in the reorder buffer, the issue queue and the load/store queue
+    public void setWindow(int robSize, int issueQueueSize, int loadStoreQueueSize) {
+        if (robSize < 1 || issueQueueSize < 1 || loadStoreQueueSize < 1)
+            throw new IllegalArgumentException("Window sizes have to be at least 1: ROB " + robSize + ", issue queue " + issueQueueSize + ", load/store queue " + loadStoreQueueSize);
+
+        this.robSize = robSize;
+        this.issueQueueSize = issueQueueSize;
+        this.loadStoreQueueSize = loadStoreQueueSize;
+    }
+
+    // null times vector arithmetic like any other instruction
+    public void setVectorUnit(VectorUnit vectorUnit) {
+        this.vectorUnit = vectorUnit;
+    }
+
+    public VectorUnit getVectorUnit() {
+        return vectorUnit;
+    }
+
+    // Takes effect on the next run, null turns prediction off. Taken branches need a BTB entry to be fetched past
+    public void setBranchPredictor(BranchPredictor predictor, BranchTargetBuffer btb) {
+        this.predictor = predictor;
+        this.btb = btb;
+    }
+
+    public BranchPredictor getBranchPredictor() {
+        return predictor;
+    }
+
+    public BranchTargetBuffer getBranchTargetBuffer() {
+        return btb;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getRobSize() {
+        return robSize;
+    }
+
+    public int getIssueQueueSize() {
+        return issueQueueSize;
+    }
+
+    public int getLoadStoreQueueSize() {
+        return loadStoreQueueSize;
+    }
+
+    // Branches executed in the last run (wrong path ones too), and how many of those were predicted wrong
+    public long getBranches() {
+        return branches;
+    }
+
+    public long getMispredictions() {
+        return mispredictions;
+    }
+
+    // Wrong path instructions thrown away
+    public long getSquashed() {
+        return squashed;
+    }
+
+    // Index n is how many cycles of the last run issued n instructions
+    public long[] getIssueHistogram() {
+        return issued.clone();
+    }
+
+    // Cycles rename couldn't go on because the reorder buffer, issue queue or load/store queue was full
+    public long getRobFullStalls() {
+        return robFull;
+    }
+
+    public long getIssueQueueFullStalls() {
+        return issueQueueFull;
+    }
+
+    public long getLoadStoreQueueFullStalls() {
+        return loadStoreQueueFull;
+    }
+
+    // Cycles a load waited on an older store writing what it reads
+    public long getLoadsHeld() {
+        return loadsHeld;
+    }
+
+    public long getCycles() {
+        return cycles;
+    }
+
+    @Override
+    public long getInstructionCount() {
+        return instructionCount;
+    }
+
+    // Runs the whole program on the calling thread, completed is run before returning
+    @Override
+    public void run(int programAddress, boolean usePipeline, Memory instructionMemory, Memory dataMemory, Runnable completed) {
+        this.usePipeline = usePipeline;
+        this.instructionMemory = instructionMemory;
+        this.memory = dataMemory;
+
+        slots = usePipeline ? width : 1;
+        fetchBuffer.clear();
+        reorderBuffer.clear();
+        issueQueue.clear();
+        loadStoreQueue.clear();
+        Arrays.fill(renameTable, null);
+        draining.clear();
+        halted = false;
+        fetchStopped = false;
+        unresolvedBranch = null;
+        abandonedFetch = -1;
+        fetchWaiting = false;
+        instrID = 0;
+        cycles = 0;
+        instructionCount = 0;
+        branches = mispredictions = squashed = 0;
+        issued = new long[slots + 1];
+        robFull = issueQueueFull = loadStoreQueueFull = loadsHeld = 0;
+        if (vectorUnit != null)
+            vectorUnit.reset();
+
+        registers.setPC(programAddress);
+
+        Simulation.setSteppedClock(true);
+        try {
+            // Squashed loads still waiting on memory finish first, so the next run doesn't find their requests
+            while (!halted || !draining.isEmpty())
+                step();
+        } finally {
+            Simulation.setSteppedClock(false);
+        }
+
+        // Cycles skipped while waiting on memory didn't issue anything either
+        long issuing = 0;
+        for (int n = 1; n < issued.length; n++)
+            issuing += issued[n];
+        issued[0] = cycles - issuing;
+
+        if (completed != null)
+            completed.run();
+    }
+
+    private void step() {
+        cycles++;
+        Simulation.cycle();
+        long start = Simulation.now();
+        progress = false;
+
+        commit();
+        memoryAccess();
+        issue();
+        rename();
+        fetch();
+
+        // A blocking cache waiting out a write back moved the clock on in the middle of a stage, those cycles passed too
+        cycles += Simulation.now() - start;
+
+        // Everything is waiting on memory, nothing changes until the next request finishes so skip to the cycle before it
+        long next = Simulation.nextEvent();
+        if (!progress && next > Simulation.now() + 1) {
+            cycles += next - 1 - Simulation.now();
+            Simulation.skipTo(next - 1);
+        }
+    }
+
+    private void commit() {
+        for (int n = 0; n < slots && !halted && !reorderBuffer.isEmpty(); n++) {
+            Entry entry = reorderBuffer.peekFirst();
+            if (!entry.done || entry.doneCycle >= cycles) return;
+
+            if (entry.fault != null)
+                throw entry.fault;
+
+            if (entry.halt) {
+                Simulation.log("Reached HALT Instruction (INSTR_" + entry.instruction.id + ")");
+                reorderBuffer.removeFirst();
+                halted = true;
+                progress = true;
+                return;
+            }
+
+            // Stores write memory now, in program order. Anything younger reading the same words is still waiting
+            Instruction instruction = entry.instruction;
+            if (instruction.writesMemory()) {
+                if (entry.memoryAccess == null)
+                    entry.memoryAccess = new MemoryAccess(STAGE_NAMES[3], instruction, memory, executor, vectorRegisters);
+                if (!entry.memoryAccess.poll()) return;
+
+                instruction.addStage(STAGE_NAMES[3]);
+            }
+
+            executor.writeBack(instruction);
+            reorderBuffer.removeFirst();
+            if (!loadStoreQueue.isEmpty() && loadStoreQueue.get(0) == entry)
+                loadStoreQueue.remove(0);
+            for (int bit = 0; bit < renameTable.length; bit++)
+                if (renameTable[bit] == entry)
+                    renameTable[bit] = null;
+            entry.committed = true;
+
+            instruction.addStage(STAGE_NAMES[4]);
+            instructionCount++;
+            progress = true;
+
+            if (Simulation.isVerbose())
+                Simulation.log("INSTR_" + instruction.id + ": Committed");
+        }
+    }
+
+    private void memoryAccess() {
+        for (Iterator<MemoryAccess> it = draining.iterator(); it.hasNext(); ) {
+            if (it.next().poll()) {
+                it.remove();
+                progress = true;
+            }
+        }
+
+        olderStores.clear();
+        for (Entry entry : loadStoreQueue) {
+            Instruction instruction = entry.instruction;
+
+            if (instruction.writesMemory()) {
+                if (!entry.executed) return; // Nothing younger knows whether it reads what this one writes
+                olderStores.add(entry);
+                continue;
+            }
+            if (!entry.executed || entry.done) continue;
+
+            boolean held = false;
+            for (Entry store : olderStores)
+                held |= overlaps(store.instruction, instruction);
+            if (held) {
+                loadsHeld++;
+                continue;
+            }
+
+            // Wrong path loads can read anywhere, what goes wrong is only thrown if the load commits
+            try {
+                if (entry.memoryAccess == null)
+                    entry.memoryAccess = new MemoryAccess(STAGE_NAMES[3], instruction, memory, executor, vectorRegisters);
+                if (!entry.memoryAccess.poll()) continue;
+            } catch (RuntimeException e) {
+                entry.fault = e;
+            }
+
+            instruction.addStage(STAGE_NAMES[3]);
+            entry.done = true;
+            entry.doneCycle = cycles;
+            progress = true;
+        }
+    }
+
+    // Whether any word an executed store writes is one an executed load reads
+    private static boolean overlaps(Instruction store, Instruction load) {
+        for (Instruction.AddressValuePair write : store.getAVPsToWriteBack(false)) {
+            // A vector store keeps its vector register in address, strided and indexed ones cover their lowest to highest element
+            int from = write.typ == 8 ? store.vectorFrom(write.value) : write.address;
+            int to = write.typ == 8 ? store.vectorTo(write.value) : from + 1;
+
+            for (Instruction.AddressValuePair read : load.getAVPsToWriteBack(false)) {
+                int readFrom = read.typ == 8 ? load.vectorFrom(read.value) : read.value;
+                int readTo = read.typ == 8 ? load.vectorTo(read.value) : read.value + 1;
+                if (readFrom < to && from < readTo)
+                    return true;
+            }
+            for (Instruction.AddressPair read : load.getAPtoMemAccess()) {
+                if (read.address_1 >= from && read.address_1 < to)
+                    return true;
+                if (read.typ == 1 && read.address_2 >= from && read.address_2 < to)
+                    return true;
+            }
+        }
+
+        return false;
+    }
+
+    private void issue() {
+        int count = 0, aluUsed = 0, vectorUsed = 0, memoryUsed = 0;
+
+        for (Iterator<Entry> it = issueQueue.iterator(); it.hasNext() && count < slots; ) {
+            Entry entry = it.next();
+            if (!ready(entry)) continue;
+
+            int unit = entry.instruction.getUnit();
+            if (unit == Instruction.ALU && aluUsed == alus) continue;
+            if (unit == Instruction.VECTOR_UNIT && vectorUsed == vectorUnits) continue;
+            if (unit == Instruction.MEMORY_PORT && memoryUsed == memoryPorts) continue;
+
+            if (unit == Instruction.ALU)
+                aluUsed++;
+            else if (unit == Instruction.VECTOR_UNIT)
+                vectorUsed++;
+            else
+                memoryUsed++;
+
+            it.remove();
+            count++;
+            progress = true;
+            if (execute(entry)) break; // Mispredicted, everything younger in the queue is gone
+        }
+
+        issued[count]++;
+    }
+
+    // Every producer has its result, from a cycle before this one. An append's result is only whole once it commits.
+    // Vector arithmetic also needs the vector unit free, and can take a vector from one still in it if they chain
+    private boolean ready(Entry entry) {
+        long now = Simulation.now();
+        boolean timed = vectorUnit != null && entry.instruction.isVectorArithmetic();
+        if (timed && !vectorUnit.canStart(now)) return false;
+
+        for (Entry producer : entry.producers) {
+            Instruction instruction = producer.instruction;
+            if (producer.committed) continue;
+            if (timed && instruction.isVectorArithmetic() && !instruction.appendsToVector() && !instruction.isReduction() && vectorUnit.canChain(instruction.vectorStart, now)) continue;
+            if (instruction.appendsToVector() || !producer.done || producer.doneCycle >= cycles)
+                return false;
+        }
+
+        return true;
+    }
+
+    // Returns true if it was a mispredicted branch
+    private boolean execute(Entry entry) {
+        Instruction instruction = entry.instruction;
+
+        bypass.clear();
+        for (Entry producer : entry.producers)
+            if (!producer.committed)
+                bypass.add(producer.instruction);
+
+        int nextPC = 0;
+        executor.setBypass(bypass);
+        try {
+            executor.execute(instruction);
+            if (instruction.isBranchingInstruction())
+                nextPC = executor.resolveBranch(instruction, instruction.pc + 1);
+        } catch (RuntimeException e) { // Thrown if it commits
+            entry.fault = e;
+        } finally {
+            executor.setBypass(null);
+        }
+
+        instruction.addStage(STAGE_NAMES[2]);
+        entry.executed = true;
+        if (!instruction.resultFromMemory() || entry.fault != null) {
+            entry.done = true;
+            entry.doneCycle = cycles;
+        }
+        if (vectorUnit != null && instruction.isVectorArithmetic()) { // Ready once the last group is out
+            long now = Simulation.now();
+            instruction.vectorStart = now;
+            instruction.vectorResult = vectorUnit.start(now, instruction.getVectorLength(), instruction.isReduction());
+            entry.doneCycle = cycles + instruction.vectorResult - now;
+        }
+
+        if (Simulation.isVerbose())
+            Simulation.log("INSTR_" + instruction.id + ": Executed: " + instruction);
+
+        return instruction.isBranchingInstruction() && entry.fault == null && resolve(entry, nextPC);
+    }
+
+    private boolean resolve(Entry branch, int nextPC) {
+        Instruction instruction = branch.instruction;
+
+        if (predictor == null) {
+            registers.setPC(nextPC);
+            unresolvedBranch = null;
+            return false;
+        }
+
+        boolean taken = nextPC != instruction.pc + 1;
+        predictor.update(instruction.pc, taken);
+        if (taken)
+            btb.update(instruction.pc, nextPC);
+
+        branches++;
+        if (nextPC == instruction.predictedPC) return false;
+
+        mispredictions++;
+        squash(branch);
+
+        if (fetchWaiting) // Can't cancel a fetch that's waiting on memory, it has to finish first
+            abandonedFetch = registers.getPC();
+        fetchWaiting = false;
+        registers.setPC(nextPC);
+        return true;
+    }
+
+    // Throws away everything younger than branch
+    private void squash(Entry branch) {
+        int id = branch.instruction.id;
+
+        while (reorderBuffer.peekLast() != branch) {
+            Entry entry = reorderBuffer.removeLast();
+            if (entry.memoryAccess != null && !entry.done) // Started on memory, the request has to finish
+                draining.add(entry.memoryAccess);
+            squashed++;
+
+            if (Simulation.isVerbose())
+                Simulation.log("INSTR_" + entry.instruction.id + ": Squashed, INSTR_" + id + " was mispredicted");
+        }
+        issueQueue.removeIf(entry -> entry.instruction.id > id);
+        loadStoreQueue.removeIf(entry -> entry.instruction.id > id);
+        squashed += fetchBuffer.size();
+        fetchBuffer.clear();
+        fetchStopped = false;
+
+        // What's left writes the registers it wrote before
+        Arrays.fill(renameTable, null);
+        for (Entry entry : reorderBuffer)
+            if (!entry.halt)
+                for (int mask = entry.instruction.getWriteMask(); mask != 0; mask &= mask - 1)
+                    renameTable[Integer.numberOfTrailingZeros(mask)] = entry;
+    }
+
+    private void rename() {
+        for (int n = 0; n < slots && !fetchBuffer.isEmpty(); n++) {
+            Entry entry = fetchBuffer.peekFirst();
+            Instruction instruction = entry.instruction;
+
+            if (reorderBuffer.size() == robSize) {
+                robFull++;
+                return;
+            }
+            if (entry.halt) { // Has nothing to do but reach the head
+                fetchBuffer.removeFirst();
+                entry.done = true;
+                entry.doneCycle = cycles;
+                reorderBuffer.addLast(entry);
+                progress = true;
+                continue;
+            }
+
+            if (instruction.getDecoded() == null)
+                instruction.decode();
+            boolean memoryOp = instruction.writesMemory() || instruction.resultFromMemory();
+            if (issueQueue.size() == issueQueueSize) {
+                issueQueueFull++;
+                return;
+            }
+            if (memoryOp && loadStoreQueue.size() == loadStoreQueueSize) {
+                loadStoreQueueFull++;
+                return;
+            }
+            fetchBuffer.removeFirst();
+            instruction.addStage(STAGE_NAMES[1]);
+
+            // A store's data vector is read when it commits, it only waits for what makes up its address
+            int reads = instruction.getReadMask();
+            if (instruction.writesMemory())
+                reads &= ~instruction.getLateReadMask();
+            for (; reads != 0; reads &= reads - 1) {
+                Entry producer = renameTable[Integer.numberOfTrailingZeros(reads)];
+                if (producer != null && !entry.producers.contains(producer))
+                    entry.producers.add(producer);
+            }
+            entry.producers.sort((a, b) -> Integer.compare(a.instruction.id, b.instruction.id));
+
+            for (int mask = instruction.getWriteMask(); mask != 0; mask &= mask - 1)
+                renameTable[Integer.numberOfTrailingZeros(mask)] = entry;
+
+            reorderBuffer.addLast(entry);
+            issueQueue.add(entry);
+            if (memoryOp)
+                loadStoreQueue.add(entry);
+            progress = true;
+
+            if (Simulation.isVerbose())
+                Simulation.log("INSTR_" + instruction.id + ": Renamed, waiting on " + entry.producers.size() + " producer(s): " + instruction);
+        }
+    }
+
+    private void fetch() {
+        if (fetchStopped || unresolvedBranch != null || !fetchBuffer.isEmpty()) return;
+        if (!usePipeline && !reorderBuffer.isEmpty()) return; // Without pipelining the next instruction starts once the last one is done
+
+        if (abandonedFetch >= 0) {
+            if (fetchWords(abandonedFetch)[0] == Memory.WAIT) return;
+
+            abandonedFetch = -1;
+            progress = true;
+            return;
+        }
+
+        int PC = registers.getPC();
+        int[] words = fetchWords(PC);
+        fetchWaiting = words[0] == Memory.WAIT;
+        if (fetchWaiting) return;
+
+        // A wide fetch gets the PC's whole line and takes what's left of it from the PC on
+        for (int i = slots == 1 ? 0 : PC % words.length; i < words.length && fetchBuffer.size() < slots; i++) {
+            Entry entry = new Entry(new Instruction(instrID++));
+            Instruction instruction = entry.instruction;
+            fetchBuffer.addLast(entry);
+            progress = true;
+
+            // Retires like any other instruction, fetching only goes on if a branch in front of it was mispredicted
+            if (instruction.checkIfHalt(words[i])) {
+                entry.halt = true;
+                fetchStopped = true;
+                return;
+            }
+
+            instruction.setWord(words[i]);
+            instruction.addStage(STAGE_NAMES[0]);
+            instruction.pc = PC;
+            registers.setPC(PC + 1);
+
+            if (Simulation.isVerbose())
+                Simulation.log("INSTR_" + instruction.id + ": Fetched: " + instruction);
+
+            // The group ends at a branch, whatever comes next is fetched from where it goes
+            if (instruction.isBranchingInstruction()) {
+                if (predictor == null) {
+                    unresolvedBranch = instruction;
+                } else {
+                    int target = btb.lookup(PC);
+                    instruction.predictedPC = target >= 0 && predictor.predict(PC, target) ? target : PC + 1;
+                    registers.setPC(instruction.predictedPC);
+                }
+                return;
+            }
+
+            PC++;
+        }
+    }
+
+    // The word at address on its own when single issue, its whole line otherwise. { Memory.WAIT } if it has to wait
+    private int[] fetchWords(int address) {
+        if (slots > 1)
+            return instructionMemory.getLine(STAGE_NAMES[0], address);
+
+        fetched[0] = instructionMemory.read(STAGE_NAMES[0], address);
+        return fetched;
+    }
+}
@@ -0,0 +1,417 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+// Main memory over the whole 32 bit (word) address space, addresses are unsigned and never wrap.
+// Pages are allocated on first write through a two level page table, untouched memory reads as 0 and costs nothing.
+// Pages come from a pool shared by every PagedMemory, release() hands them back so the next program reuses them.
+// There is no per line table for the UI, Main keeps using a plain Memory.
+//
+// The pages can also be mapped straight from an image file (mapImage), saved by saveImage after an earlier run.
+// An image is little endian: magic, page size in words, page count, 0, the page numbers, padding up to a page
+// boundary, then the pages themselves in the same order, so each one can be mapped where it lies in the file
+public class PagedMemory extends Memory {
+    public static final int DEFAULT_PAGE_WORDS = 1024; // 4 KiB of ints
+    public static final int IMAGE_MAGIC = 0x31494D56; // "VMI1"
+    private static final long MAP_CHUNK_BYTES = 1L << 30; // A single mapping can't go past 2 GiB
+
+    private static final ArrayDeque<Page> heapPool = new ArrayDeque<>();
+    private static final ArrayDeque<Page> directPool = new ArrayDeque<>();
+
+    private final int pageWords, pageBits, lowBits;
+    private final boolean offHeap;
+    private final Page[][] directory; // Indexed by the high, then the low bits of the page number
+    private int pagesInUse = 0;
+
+    // Storage of one page, either an int[] or an off heap IntBuffer
+    private static abstract class Page {
+        public abstract int get(int offset);
+        public abstract void set(int offset, int value);
+        public abstract void get(int offset, int[] dest, int destPos, int count);
+        public abstract void set(int offset, int[] src, int srcPos, int count);
+        public abstract void clear();
+    }
+
+    private static class HeapPage extends Page {
+        private final int[] words;
+
+        public HeapPage(int size) {
+            words = new int[size];
+        }
+
+        @Override
+        public int get(int offset) { return words[offset]; }
+        @Override
+        public void set(int offset, int value) { words[offset] = value; }
+        @Override
+        public void get(int offset, int[] dest, int destPos, int count) { System.arraycopy(words, offset, dest, destPos, count); }
+        @Override
+        public void set(int offset, int[] src, int srcPos, int count) { System.arraycopy(src, srcPos, words, offset, count); }
+        @Override
+        public void clear() { Arrays.fill(words, 0); }
+    }
+
+    private static class DirectPage extends Page {
+        private final IntBuffer words;
+
+        public DirectPage(int size) {
+            words = ByteBuffer.allocateDirect(size * Integer.BYTES).order(ByteOrder.nativeOrder()).asIntBuffer();
+        }
+
+        public DirectPage(IntBuffer words) {
+            this.words = words;
+        }
+
+        @Override
+        public int get(int offset) { return words.get(offset); }
+        @Override
+        public void set(int offset, int value) { words.put(offset, value); }
+        @Override
+        public void get(int offset, int[] dest, int destPos, int count) { words.duplicate().position(offset).get(dest, destPos, count); }
+        @Override
+        public void set(int offset, int[] src, int srcPos, int count) { words.duplicate().position(offset).put(src, srcPos, count); }
+
+        @Override
+        public void clear() {
+            for (int i = 0; i < words.capacity(); i++)
+                words.put(i, 0);
+        }
+    }
+
+    // A page of a mapped image file, mapped read only and never pooled. The first write to it swaps in a copy
+    // (see page()), so the image file is never changed
+    private static class MappedPage extends DirectPage {
+        public MappedPage(IntBuffer words) {
+            super(words);
+        }
+    }
+
+    public PagedMemory(int lineLength, int delay) {
+        this(lineLength, delay, DEFAULT_PAGE_WORDS, false);
+    }
+
+    // pageWords has to be a power of two at least lineLength. offHeap keeps the pages outside the Java heap
+    public PagedMemory(int lineLength, int delay, int pageWords, boolean offHeap) {
+        super(0, lineLength, delay, false);
+
+        if (Integer.bitCount(pageWords) != 1 || pageWords < lineLength)
+            throw new IllegalArgumentException("Page size has to be a power of two of at least a line: " + pageWords);
+
+        this.pageWords = pageWords;
+        this.offHeap = offHeap;
+        this.pageBits = Integer.numberOfTrailingZeros(pageWords);
+
+        int pageNumberBits = 32 - pageBits;
+        this.lowBits = pageNumberBits / 2;
+        this.directory = new Page[1 << (pageNumberBits - lowBits)][];
+    }
+
+    // The page holding address, null if it was never written and create is false
+    private Page page(int address, boolean create) {
+        int pageNumber = address >>> pageBits;
+        Page[] table = directory[pageNumber >>> lowBits];
+        Page page = table == null ? null : table[pageNumber & ((1 << lowBits) - 1)];
+
+        return (page != null && !(page instanceof MappedPage)) || !create ? page : createPage(pageNumber);
+    }
+
+    // Allocates the page, or copies it out of the image if it's mapped.
+    // Synchronized so Fetch and Memory Access threads touching a new page at once get the same one
+    private synchronized Page createPage(int pageNumber) {
+        Page[] table = directory[pageNumber >>> lowBits];
+        if (table == null)
+            table = directory[pageNumber >>> lowBits] = new Page[1 << lowBits];
+
+        int index = pageNumber & ((1 << lowBits) - 1);
+        Page page = table[index];
+
+        if (page == null) {
+            page = table[index] = allocate();
+            pagesInUse++;
+        } else if (page instanceof MappedPage) {
+            int[] words = new int[pageWords];
+            page.get(0, words, 0, pageWords);
+
+            page = table[index] = allocate();
+            page.set(0, words, 0, pageWords);
+        }
+
+        return page;
+    }
+
+    private Page allocate() {
+        ArrayDeque<Page> pool = offHeap ? directPool : heapPool;
+
+        synchronized (pool) {
+            Page page = pool.poll();
+            if (page != null) {
+                page.clear();
+                return page;
+            }
+        }
+
+        return offHeap ? new DirectPage(pageWords) : new HeapPage(pageWords);
+    }
+
+    private int peek(int address) {
+        Page page = page(address, false);
+        return page == null ? 0 : page.get(address & (pageWords - 1));
+    }
+
+    // Copies count words from address on into dest, a page at a time
+    private void copyOut(int address, int[] dest, int count) {
+        for (int done = 0; done < count; ) {
+            int offset = (address + done) & (pageWords - 1);
+            int n = Math.min(count - done, pageWords - offset);
+            Page page = page(address + done, false);
+
+            if (page == null)
+                Arrays.fill(dest, done, done + n, 0);
+            else
+                page.get(offset, dest, done, n);
+
+            done += n;
+        }
+    }
+
+    @Override
+    public int read(String callingFrom, int address) {
+        if (needsToWait(callingFrom, address))
+            return Memory.WAIT;
+
+        return peek(address);
+    }
+
+    // A copy of the line holding address, not the line itself
+    @Override
+    public int[] getLine(String callingFrom, int address) {
+        if (needsToWait(callingFrom, address))
+            return new int[]{Memory.WAIT};
+
+        int[] line = new int[getLineLength()];
+        copyOut(address & -getLineLength(), line, line.length);
+        return line;
+    }
+
+    @Override
+    public int write(String callingFrom, int address, int value) {
+        if (needsToWait(callingFrom, address))
+            return Memory.WAIT;
+
+        page(address, true).set(address & (pageWords - 1), value);
+        return 1;
+    }
+
+    @Override
+    public int writeLine(String callingFrom, int lineNum, int[] line) {
+        if (needsToWait(callingFrom, lineNum))
+            return Memory.WAIT;
+
+        postBlock(lineNum * getLineLength(), line, getLineLength());
+        return 1;
+    }
+
+    @Override
+    public int[] getBlock(String callingFrom, int address, int count) {
+        if (needsToWait(callingFrom, address))
+            return new int[]{Memory.WAIT};
+
+        int[] block = new int[count];
+        copyOut(address, block, count);
+        return block;
+    }
+
+    @Override
+    public void postBlock(int address, int[] values, int count) {
+        for (int done = 0; done < count; ) {
+            int offset = (address + done) & (pageWords - 1);
+            int n = Math.min(count - done, pageWords - offset);
+
+            page(address + done, true).set(offset, values, done, n);
+            done += n;
+        }
+    }
+
+    @Override
+    public int instrRead(int PC, String name) {
+        return peek(PC);
+    }
+
+    // Every line of every page written so far
+    @Override
+    public void printData() {
+        for (int high = 0; high < directory.length; high++) {
+            if (directory[high] == null) continue;
+
+            for (int low = 0; low < directory[high].length; low++)
+                if (directory[high][low] != null) {
+                    int start = ((high << lowBits) | low) << pageBits;
+                    printLines(start, start + pageWords - 1);
+                }
+        }
+    }
+
+    // -1 for either end means the whole address space, but then only pages written so far are printed
+    @Override
+    public void printData(int fromAddr, int toAddr) {
+        if (fromAddr == -1 || toAddr == -1)
+            printData();
+        else
+            printLines(fromAddr, toAddr);
+    }
+
+    private void printLines(int fromAddr, int toAddr) {
+        int lineLength = getLineLength();
+        int[] row = new int[lineLength];
+
+        for (long line = (fromAddr & 0xFFFFFFFFL) / lineLength; line <= (toAddr & 0xFFFFFFFFL) / lineLength; line++) {
+            copyOut((int) (line * lineLength), row, lineLength);
+            System.out.println((line * lineLength) + ": " + Arrays.toString(row));
+        }
+    }
+
+    // The address space doesn't fit an int, see getPagesInUse() for how much is backed
+    @Override
+    public int getSize() {
+        return Integer.MAX_VALUE;
+    }
+
+    public int getPagesInUse() {
+        return pagesInUse;
+    }
+
+    public int getPageWords() {
+        return pageWords;
+    }
+
+    // Hands every page back to the pool, the memory reads as all 0 afterwards
+    public synchronized void release() {
+        for (int high = 0; high < directory.length; high++) {
+            if (directory[high] == null) continue;
+
+            for (Page page : directory[high])
+                if (page != null)
+                    recycle(page);
+
+            directory[high] = null;
+        }
+
+        pagesInUse = 0;
+    }
+
+    private static void recycle(Page page) {
+        if (page instanceof MappedPage) return; // Unmapped once nothing refers to it
+
+        ArrayDeque<Page> pool = page instanceof DirectPage ? directPool : heapPool;
+        synchronized (pool) {
+            pool.add(page);
+        }
+    }
+
+    // Maps every page of the image in place of what this memory held at those pages. Nothing is read up front,
+    // the OS pages the file in as it's touched. Pages outside the image are left as they are
+    public synchronized void mapImage(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(4 * Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            channel.read(header, 0);
+            header.flip();
+
+            if (header.remaining() < 4 * Integer.BYTES || header.getInt() != IMAGE_MAGIC)
+                throw new IOException(file + " isn't a memory image");
+            if (header.getInt() != pageWords)
+                throw new IOException(file + " was saved with a different page size than " + pageWords + " words");
+
+            int pageCount = header.getInt();
+            ByteBuffer numbers = ByteBuffer.allocate(pageCount * Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            channel.read(numbers, 4 * Integer.BYTES);
+            numbers.flip();
+
+            long pageBytes = (long) pageWords * Integer.BYTES;
+            long dataStart = imageDataStart(pageCount);
+            if (channel.size() < dataStart + pageCount * pageBytes)
+                throw new IOException(file + " is truncated");
+
+            // Map the data in chunks of whole pages, then hand each page a view of its part of a chunk
+            int pagesPerChunk = (int) (MAP_CHUNK_BYTES / pageBytes);
+            for (int first = 0; first < pageCount; first += pagesPerChunk) {
+                int count = Math.min(pagesPerChunk, pageCount - first);
+                ByteBuffer chunk = channel.map(FileChannel.MapMode.READ_ONLY, dataStart + first * pageBytes, count * pageBytes);
+
+                for (int i = 0; i < count; i++) {
+                    ByteBuffer view = chunk.duplicate();
+                    view.position((int) (i * pageBytes)).limit((int) ((i + 1) * pageBytes));
+                    install(numbers.getInt(), new MappedPage(view.slice().order(ByteOrder.LITTLE_ENDIAN).asIntBuffer()));
+                }
+            }
+        }
+    }
+
+    private void install(int pageNumber, Page page) {
+        Page[] table = directory[pageNumber >>> lowBits];
+        if (table == null)
+            table = directory[pageNumber >>> lowBits] = new Page[1 << lowBits];
+
+        int index = pageNumber & ((1 << lowBits) - 1);
+        if (table[index] != null)
+            recycle(table[index]);
+        else
+            pagesInUse++;
+
+        table[index] = page;
+    }
+
+    // Writes every page in use to an image mapImage can map. Written to a temporary file first and moved over file,
+    // so saving over the image this memory was mapped from is fine
+    public synchronized void saveImage(Path file) throws IOException {
+        ArrayList<Integer> pageNumbers = new ArrayList<>();
+        for (int high = 0; high < directory.length; high++) {
+            if (directory[high] == null) continue;
+
+            for (int low = 0; low < directory[high].length; low++)
+                if (directory[high][low] != null)
+                    pageNumbers.add((high << lowBits) | low);
+        }
+
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer header = ByteBuffer.allocate((int) imageDataStart(pageNumbers.size())).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(IMAGE_MAGIC).putInt(pageWords).putInt(pageNumbers.size()).putInt(0);
+            for (int pageNumber : pageNumbers)
+                header.putInt(pageNumber);
+
+            header.rewind();
+            while (header.hasRemaining())
+                channel.write(header);
+
+            ByteBuffer data = ByteBuffer.allocate(pageWords * Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            int[] words = new int[pageWords];
+            for (int pageNumber : pageNumbers) {
+                page(pageNumber << pageBits, false).get(0, words, 0, pageWords);
+
+                data.clear();
+                data.asIntBuffer().put(words);
+                while (data.hasRemaining())
+                    channel.write(data);
+            }
+        }
+
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Header plus page numbers, rounded up to a whole page
+    private long imageDataStart(int pageCount) {
+        long pageBytes = (long) pageWords * Integer.BYTES;
+        long headerBytes = (4L + pageCount) * Integer.BYTES;
+        return (headerBytes + pageBytes - 1) / pageBytes * pageBytes;
+    }
+}
@@ -1,6 +1,6 @@
-import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicLong;
 
-public class Pipeline implements NotifyAvailable {
+public class Pipeline implements PipelineEngine, NotifyAvailable {
 
     private Stage[] stages;
     private Stage lastStage;
@@ -10,17 +10,21 @@ public class Pipeline implements NotifyAvailable {
 
     private Registers registers;
     private VectorRegisters vectorRegisters;
+    private Executor executor;
+    private Memory instructionMemory;
     private Memory memory;
 
     private Runnable completed;
 
-    private ArrayList<Instruction> currInstructions;
+    private final Scoreboard scoreboard = new Scoreboard(); // Writes of the decoded instructions that haven't written back
 
     private int endID = Integer.MAX_VALUE;
+    private final AtomicLong instructionCount = new AtomicLong();
 
     public Pipeline(Registers registers, VectorRegisters vectorRegisters) {
         this.registers = registers;
         this.vectorRegisters = vectorRegisters;
+        this.executor = new Executor(registers, vectorRegisters);
     }
 
     private void setupStages() {
@@ -35,9 +39,11 @@ public class Pipeline implements NotifyAvailable {
 
     int instrID = 0;
 
-    public void run(int programAddress, boolean usePipeline, Memory memory, Runnable completed) {
+    @Override
+    public void run(int programAddress, boolean usePipeline, Memory instructionMemory, Memory dataMemory, Runnable completed) {
         this.usePipeline = usePipeline;
-        this.memory = memory;
+        this.instructionMemory = instructionMemory;
+        this.memory = dataMemory;
         setupStages();
 
         stages[0].setToNotify(usePipeline ? this : null);
@@ -54,13 +60,19 @@ public class Pipeline implements NotifyAvailable {
         // Pre-set variables to track instructions
         instrID = 0;
         endID = Integer.MAX_VALUE;
-        currInstructions = new ArrayList<>();
+        instructionCount.set(0);
+        scoreboard.clear();
 
         // Set PC to address of program
         registers.setPC(programAddress);
         runNewInstruction();
     }
 
+    @Override
+    public long getInstructionCount() {
+        return instructionCount.get();
+    }
+
     @Override
     public void nextStageAvailable() {
         if (runningProgram && instrID < endID) {
@@ -73,7 +85,6 @@ public class Pipeline implements NotifyAvailable {
         instrID++;
 
         Instruction instr = new Instruction(currID);
-        currInstructions.add(instr);
 
         stages[0].run(instr);
     }
@@ -108,15 +119,17 @@ public class Pipeline implements NotifyAvailable {
             if (i.id >= endID) return;
 
             if (this == lastStage || !usePipeline)
-                Main.cycle();
+                Simulation.cycle();
 
-            this.finishedRun = false;
-            this.instruction = i;
+            synchronized (this) {
+                this.finishedRun = false;
+                this.instruction = i;
+            }
 
             Instruction dependsOnInstr = null;
 
-            System.out.println("INSTR_" + i.id + ": Running at " + name + ": " + i);
-            Main.print("INSTR_" + i.id + ": Running at " + name + ": " + i);
+            if (Simulation.isVerbose())
+                Simulation.log("INSTR_" + i.id + ": Running at " + name + ": " + i);
 
             // Checking which version of run to go with
             switch (name) {
@@ -126,13 +139,13 @@ public class Pipeline implements NotifyAvailable {
 
                     // Gets instruction in memory from address in PC
                     while (out == Memory.WAIT) {
-                        out = memory.read(name, PC);
+                        out = instructionMemory.read(name, PC);
                     }
 
                     if (instruction.checkIfHalt(out)) // Check if halt instruction
                         break;
 
-                    instruction.instructionToBinaryString(out);
+                    instruction.setWord(out);
                     instruction.addStage(name);
 
                     registers.setPC(PC + 1);
@@ -140,579 +153,39 @@ public class Pipeline implements NotifyAvailable {
                 case "Decode":
                     instruction.decode();
 
-                    // Check if dependant on another instruction
-                    for (Object obj:  currInstructions.toArray()) {
-                        Instruction instr = (Instruction) obj;
-                        if (instruction.id == instr.id) continue;
-
-                        if (instruction.dependsOn(instr)) {
-                            stalled = true;
+                    // Check if dependant on an older instruction, everything older has been decoded already
+                    dependsOnInstr = scoreboard.youngestWriter(instruction.getReadMask());
+                    if (dependsOnInstr != null)
+                        stalled = true;
 
-                            if (dependsOnInstr == null || instr.id > dependsOnInstr.id)
-                                dependsOnInstr = instr;
-                        }
-                    }
+                    scoreboard.issue(instruction);
                     break;
-                case "Execute": {
-                    int type = instruction.getType();
-                    int opCode = instruction.getOpCode();
-                    ArrayList<Integer> params = instruction.getParams();
-
-                    switch (type) {
-                        case 0: // Data Processing with 3 operands (rd = r1 + r2)
-                            switch (opCode) {
-                                case 0: // Add
-                                    int r_d = params.get(0);
-                                    int r_1 = params.get(1);
-                                    int r_2 = params.get(2);
-
-                                    instruction.saveToWriteBack(r_d, registers.get(r_1) + registers.get(r_2), true);
-                                    break;
-                                case 1: // Subtract
-                                    r_d = params.get(0);
-                                    r_1 = params.get(1);
-                                    r_2 = params.get(2);
-
-                                    instruction.saveToWriteBack(r_d, registers.get(r_1) - registers.get(r_2), true);
-                                    break;
-                                case 2: // Multiply
-                                    r_d = params.get(0);
-                                    r_1 = params.get(1);
-                                    r_2 = params.get(2);
-
-                                    instruction.saveToWriteBack(r_d, registers.get(r_1) * registers.get(r_2), true);
-                                    break;
-                                case 4: // Divide(Not the processor's job to catch the dividing by zero error)
-                                    r_d = params.get(0);
-                                    r_1 = params.get(1);
-                                    r_2 = params.get(2);
-
-                                    instruction.saveToWriteBack(r_d, registers.get(r_1) / registers.get(r_2), true);
-                                    break;
-                                case 8: // Modulo(Not the processor's job to catch the dividing by zero error)
-                                    r_d = params.get(0);
-                                    r_1 = params.get(1);
-                                    r_2 = params.get(2);
-
-                                    instruction.saveToWriteBack(r_d, registers.get(r_1) % registers.get(r_2), true);
-                                    break;
-                                case 12: // Compare
-                                    r_1 = registers.get(params.get(1));
-                                    r_2 = registers.get(params.get(2));
-
-                                    int cmp = compare(r_1, r_2);
-                                    instruction.saveToWriteBack(13, cmp, true);
-                                    break;
-                                default:
-                                    System.out.println("Invalid OPcode: "+opCode);
-                                    break;
-                            }
-                            break;
-                        case 1://Data Processing Register Indirect(both) with 3 operands (rd = ValueAt(r1) + ValueAt(r2))
-                            switch(opCode){
-                                case 0://Add
-
-                                case 1: // Subtract
-
-                                case 2: // Multiply
-
-                                case 4: // Divide(Not the processor's job to catch the dividing by zero error)
-
-                                case 8: // Modulo(Not the processor's job to catch the dividing by zero error)
-                                    int r_d = params.get(0);
-                                    int r_1 = params.get(1);
-                                    int r_2 = params.get(2);
-
-                                    instruction.saveToMemAccess(registers.get(r_1),registers.get(r_2),r_d,opCode,type);
-                                    break;
-                                case 12: // Compare
-                                    r_1 = registers.get(params.get(1));
-                                    r_2 = registers.get(params.get(2));
-
-                                    instruction.saveToMemAccess(registers.get(r_1),registers.get(r_2),13,opCode,type);
-                                    break;
-                                default:
-                                    System.out.println("Invalid OPcode: "+opCode);
-                                    break;
-                            }
-                        case 2://Data Processing Register Indirect(one) with 3 operands (rd = ValueAt(r1) + r2)
-                            //The second parameter is an immediate not a register value
-                            switch(opCode){
-                                case 0://Add
-
-                                case 1: // Subtract
-
-                                case 2: // Multiply
-
-                                case 4: // Divide(Not the processor's job to catch the dividing by zero error)
-
-                                case 8: // Modulo(Not the processor's job to catch the dividing by zero error)
-                                    int r_d = params.get(0);
-                                    int r_1 = params.get(1);
-                                    int r_2 = params.get(2);
-
-                                    instruction.saveToMemAccess(registers.get(r_1),r_2,r_d,opCode,type);
-                                    break;
-                                case 12: // Compare
-                                    r_1 = registers.get(params.get(1));
-                                    r_2 = registers.get(params.get(2));
-
-                                    instruction.saveToMemAccess(registers.get(r_1),r_2,13,opCode,type);
-                                    break;
-                                default:
-                                    System.out.println("Invalid OPcode: "+opCode);
-                                    break;
-                            }
-                        case 3: // Data Processing with operand and immediate (rd = r1 + 3)
-                            switch (opCode) {
-                                case 0: // Add
-                                    int r_d = params.get(0);
-                                    int r_1 = params.get(1);
-                                    int imm = params.get(2);
-
-                                    instruction.saveToWriteBack(r_d, registers.get(r_1) + imm, true);
-                                    break;
-                                case 1: // Subtract
-                                    r_d = params.get(0);
-                                    r_1 = params.get(1);
-                                    imm = params.get(2);
-
-                                    instruction.saveToWriteBack(r_d, registers.get(r_1) - imm, true);
-                                    break;
-                                case 2: // Multiply
-                                    r_d = params.get(0);
-                                    r_1 = params.get(1);
-                                    imm = params.get(2);
-
-                                    instruction.saveToWriteBack(r_d, registers.get(r_1) * imm, true);
-                                    break;
-                                case 4: // Divide(Not the processor's job to catch the dividing by zero error)
-                                    r_d = params.get(0);
-                                    r_1 = params.get(1);
-                                    imm = params.get(2);
-
-                                    instruction.saveToWriteBack(r_d, registers.get(r_1) / imm, true);
-                                    break;
-                                case 8: // Modulo(Not the processor's job to catch the dividing by zero error)
-                                    r_d = params.get(0);
-                                    r_1 = params.get(1);
-                                    imm = params.get(2);
-
-                                    instruction.saveToWriteBack(r_d, registers.get(r_1) % imm, true);
-                                    break;
-                                case 12: // Compare
-                                    r_1 = registers.get(params.get(1));
-                                    imm = params.get(2);
-
-                                    int cmp = compare(r_1, imm);
-                                    instruction.saveToWriteBack(13, cmp, true);
-                                    break;
-                                default:
-                                    System.out.println("Invalid OPcode: "+opCode);
-                                    break;
-                            }
-                            break;
-                        case 5: // Load/Store
-                            switch (opCode) {
-                                case 13:
-                                    //All Loads other than immediate load happen in memory stage
-                                    instruction.saveToWriteBack(params.get(0), registers.get(params.get(1)), false);
-                                    break;
-                                case 14:
-                                    //Store gets executed in the write back or memory access stage
-                                    int address = registers.get(params.get(0));
-                                    int value = registers.get(params.get(1));
-                                    instruction.saveToWriteBack(address, value, false);
-                                    break;
-                                default:
-                                    System.out.println("Invalid OPcode: "+opCode);
-                                    break;
-                            }
-                            break;
-                        case 6: // Load/Store Immediate
-                            switch (opCode) {
-                                case 13:
-                                    //Only direct load happen in execute stage, all memory based loads happen in memory stage
-                                    instruction.saveToWriteBack(params.get(0), params.get(1), true);
-                                    break;
-                                case 14:
-                                    //Store gets executed in the write back or memory access stage
-                                    int address = registers.get(params.get(0));
-                                    int value = params.get(1);
-                                    instruction.saveToWriteBack(address, value, false);
-                                    break;
-                                default:
-                                    System.out.println("Invalid OPcode: "+opCode);
-                                    break;
-                            }
-                            break;
-                        case 8:// Vector Load/Store
-                            switch (opCode) {
-                                case 13:
-                                    //Copy value from origin register to destination register
-
-                                case 14:
-                                    //Store gets executed in the write back or memory access stage
-                                    instruction.saveToWriteBack(params.get(0), registers.get(params.get(1)), false);
-                                    break;
-                                case 7:
-                                    //Append value onto vector
-                                    instruction.saveToWriteBack(params.get(0), params.get(1), true);
-                                    break;
-                                default:
-                                    System.out.println("Invalid OPcode: "+opCode);
-                                    break;
-
-                            }
-                            break;
-                        case 9:
-                            switch (opCode) {
-                                case 0: // Add
-                                    int r_d = params.get(0);
-                                    int r_1 = params.get(1);
-                                    int r_2 = params.get(2);
-
-                                    int len = instruction.getVectorLength();//number of elements
-                                    ArrayList<Integer> v1 = vectorRegisters.get(r_1);
-                                    ArrayList<Integer> v2 = vectorRegisters.get(r_2);
-                                    int[] vd = new int[len];
-
-                                    for(int element = 0; element < len; element++){
-                                        vd[element] = v1.get(element) + v2.get(element);
-                                    }
-
-                                    instruction.vectorSaveToWriteBack(r_d, vd, true);
-
-                                    break;
-                                case 1: // Subtract
-                                    r_d = params.get(0);
-                                    r_1 = params.get(1);
-                                    r_2 = params.get(2);
-
-                                    len = instruction.getVectorLength();//number of elements
-                                    v1 = vectorRegisters.get(r_1);
-                                    v2 = vectorRegisters.get(r_2);
-                                    vd = new int[len];
-
-                                    for(int element = 0; element < len;element++){
-                                        vd[element] = v1.get(element)-v2.get(element);
-                                    }
-                                    instruction.vectorSaveToWriteBack(r_d, vd, true);
-                                    break;
-                                case 2: // Multiply
-                                    //Vector Multiply needs work
-                                    r_d = params.get(0);
-                                    r_1 = params.get(1);
-                                    r_2 = params.get(2);
-
-                                    len = instruction.getVectorLength();//number of elements
-                                    v1 = vectorRegisters.get(r_1);
-                                    v2 = vectorRegisters.get(r_2);
-                                    int sum = 0;
-
-                                    for(int element = 0; element < len;element++){
-                                        sum += v1.get(element)*v2.get(element);
-                                    }
-                                    instruction.saveToWriteBack(r_d,sum , true);
-                                    break;
-                                case 4: // Divide(Not the processor's job to catch the dividing by zero error)
-                                    r_d = params.get(0);
-                                    r_1 = params.get(1);
-                                    r_2 = params.get(2);
-
-                                    len = instruction.getVectorLength();//number of elements
-                                    v1 = vectorRegisters.get(r_1);
-                                    v2 = vectorRegisters.get(r_2);
-                                    vd = new int[len];
-
-                                    for(int element = 0; element < len;element++){
-                                        vd[element] = v1.get(element)/v2.get(element);
-                                    }
-                                    instruction.vectorSaveToWriteBack(r_d, vd, true);
-                                    break;
-                                default:
-                                    System.out.println("Invalid OPcode: "+opCode);
-                                    break;
-                            }
-                            break;
-                        case 10://Vector Data processing with 2 operands and an immediate (vd = v1 * 3)
-                            switch (opCode) {
-                                case 0: // Add
-                                    int r_d = params.get(0);
-                                    int r_1 = params.get(1);
-                                    int r_2 = params.get(2);
-
-                                    int len = instruction.getVectorLength();//number of elements
-                                    ArrayList<Integer> v1 = vectorRegisters.get(r_1);
-                                    int[] vd = new int[len];
-
-                                    for(int element = 0; element < len;element++){
-                                        vd[element] = v1.get(element)+r_2;
-                                    }
-                                    instruction.vectorSaveToWriteBack(r_d, vd, true);
-                                    break;
-                                case 1: // Subtract
-                                    r_d = params.get(0);
-                                    r_1 = params.get(1);
-                                    r_2 = params.get(2);
-
-                                    len = instruction.getVectorLength();//number of elements
-                                    v1 = vectorRegisters.get(r_1);
-                                    vd = new int[len];
-
-                                    for(int element = 0; element < len;element++){
-                                        vd[element] = v1.get(element)-r_2;
-                                    }
-                                    instruction.vectorSaveToWriteBack(r_d, vd, true);
-                                    break;
-                                case 2: // Multiply
-                                    r_d = params.get(0);
-                                    r_1 = params.get(1);
-                                    r_2 = params.get(2);
-
-                                    len = instruction.getVectorLength();//number of elements
-                                    v1 = vectorRegisters.get(r_1);
-                                    vd = new int[len];
-
-                                    for(int element = 0; element < len;element++){
-                                        vd[element] = v1.get(element)*r_2;
-                                    }
-                                    instruction.vectorSaveToWriteBack(r_d, vd, true);
-                                    break;
-                                case 4: // Divide(Not the processor's job to catch the dividing by zero error)
-                                    r_d = params.get(0);
-                                    r_1 = params.get(1);
-                                    r_2 = params.get(2);
-
-                                    len = instruction.getVectorLength();//number of elements
-                                    v1 = vectorRegisters.get(r_1);
-                                    vd = new int[len];
-
-                                    for(int element = 0; element < len;element++){
-                                        vd[element] = v1.get(element)/r_2;
-                                    }
-                                    instruction.vectorSaveToWriteBack(r_d, vd, true);
-                                    break;
-                                default:
-                                    System.out.println("Invalid OPcode: "+opCode);
-                                    break;
-                            }
-                            break;
-                        case 7:
-                            //Avoiding the below exception for branch
-                            break;
-                        default:
-                            System.out.println("Invalid Type code: " + type);
-                            break;
-                    }
-
+                case "Execute":
+                    executor.execute(instruction);
                     break;
-                }
                 case "Memory Access": {
                     //Load from memory needs tp happen here, i.e, needs to access the data here, Load from immediate needs to happen in write back
-                    ArrayList<Integer> params = instruction.getParams();
-
-                    //For Indirect access
-                    for (Instruction.AddressPair ap: instruction.getAPtoMemAccess()) {
-                        if (ap.typ == 1){
-                            int op1 = Memory.WAIT, op2 = Memory.WAIT;
-                            while (op1 == Memory.WAIT)
-                                op1 = memory.read(name, ap.address_1);
-                            while (op2 == Memory.WAIT)
-                                op2 = memory.read(name, ap.address_2);
-                            switch(ap.opcode){
-                                case 0://Add
-                                    instruction.saveToWriteBack(ap.destination, op1 + op2, true);
-                                    break;
-                                case 1://Subtract
-                                    instruction.saveToWriteBack(ap.destination, op1 - op2 , true);
-                                    break;
-                                case 2://Multiply
-                                    instruction.saveToWriteBack(ap.destination, op1 * op2, true);
-                                    break;
-                                case 4://Divide
-                                    instruction.saveToWriteBack(ap.destination, op1 / op2 , true);
-                                    break;
-                                case 8://Mod
-                                    instruction.saveToWriteBack(ap.destination, op1 % op2 , true);
-                                    break;
-                                case 12://Compare
-                                    int cmp = compare(op1, op2);
-                                    instruction.saveToWriteBack(13, cmp, true);
-                                    break;
-                            }
-                        } else if(ap.typ == 2){
-                            int op1 = Memory.WAIT;
-                            while (op1 == Memory.WAIT)
-                                op1 = memory.read(name, ap.address_1);
-
-                            switch(ap.opcode){
-                                case 0://Add
-                                    instruction.saveToWriteBack(ap.destination, op1 + ap.address_2, true);
-                                    break;
-                                case 1://Subtract
-                                    instruction.saveToWriteBack(ap.destination, op1 - ap.address_2, true);
-                                    break;
-                                case 2://Multiply
-                                    instruction.saveToWriteBack(ap.destination, op1 * ap.address_2, true);
-                                    break;
-                                case 4://Divide
-                                    instruction.saveToWriteBack(ap.destination, op1 / ap.address_2, true);
-                                    break;
-                                case 8://Mod
-                                    instruction.saveToWriteBack(ap.destination, op1 % ap.address_2, true);
-                                    break;
-                                case 12://Compare
-                                    int cmp = compare(op1, ap.address_2);
-                                    instruction.saveToWriteBack(13, cmp, true);
-                                    break;
-                            }
-                        }
-                    }
 
-                    for (Instruction.AddressValuePair avp: instruction.getAVPsToWriteBack(false)) {
-                        //Loading from memory at a given register
-                        if(avp.typ == 5 && avp.opcode == 13){
-                            int check = Memory.WAIT;
-                            while(check == Memory.WAIT){
-                                check = memory.read(name, avp.value);
-                            }
-
-                            instruction.saveToWriteBack(avp.address, check,true);
-                        }
-                        else if(avp.typ == 8){
-                            if(avp.opcode == 13){//Vector Load from memory(note, the passed result in vd is an int[],change it to Arraylist)
-                                int len = instruction.getVectorLength();
-                                int start = avp.value;
-                                int cacheLen = 4;
-                                int fullreads = len/cacheLen;
-                                int partialread = len%cacheLen;
-                                int[] vd = new int[len];
-                                int j = 0; //Value to keep a track of item in vd
-
-                                //Reading full lines
-                                for(int readNum=0; readNum < fullreads;readNum++){
-                                    int[] line = new int[] { Memory.WAIT };
-                                    while(line[0] == Memory.WAIT) {
-                                        line = memory.getLine(name, start);
-                                    }
-                                    //Copying the values in vd
-                                    for(int k = 0; k < 4;k++){
-                                        vd[j] = line[k];
-                                        j++;
-                                    }
-                                    start += 4;
-                                }
-
-                                //Reading partial lines
-                                int[] line = new int[] { Memory.WAIT };
-                                while(line[0] == Memory.WAIT) {
-                                    line = memory.getLine(name, start);
-                                }
-
-                                for(int k = 0; k < partialread;k++){
-                                    vd[j] = line[k];
-                                    j++;
-                                }
-                                instruction.vectorSaveToWriteBack(avp.address, vd, true);
-
-                            }
-                            else{//Vector store in memory
-                                int len = instruction.getVectorLength();
-                                int start = avp.value;
-                                int cacheLen = 4;
-                                int fullstore = len/cacheLen;
-                                int partialstore = len%cacheLen;
-                                ArrayList<Integer> register = vectorRegisters.get(avp.address);
-                                int[] vd = new int[register.size()];
-                                int j = 0; //Value to keep a track of item in vd
-
-                                //Making a deep copy of the register
-                                for(int k = 0;  k < vd.length && register.get(k) != null;k++){
-                                    vd[k] = register.get(k);
-                                }
-
-                                //Storing full lines
-                                for(int readNum=0; readNum < fullstore;readNum++){
-                                    int check = Memory.WAIT;
-                                    int[] line = new int[cacheLen];
-                                    for(int k = 0; k < 4;k++){
-                                        line[k] = vd[j];
-                                        j++;
-                                    }
-                                    while(check == Memory.WAIT) {
-                                        check = memory.writeLinePartial(name, start/4,line,4);
-                                    }
-
-                                    start += 4;
-                                }
-
-                                //Storing partial lines
-                                int[] line = new int[partialstore];
-                                int check = Memory.WAIT;
-
-                                for(int k = 0; k < partialstore;k++){
-                                   line[k] = vd[j];
-                                   j++;
-                                }
-                                while(check == Memory.WAIT){
-                                    check = memory.writeLinePartial(name, start,line,partialstore);
-                                }
-                            }
-                        } else{
-                            int check = Memory.WAIT;
-                            while(check == Memory.WAIT) {
-                                check = memory.write(name, avp.address, avp.value);
-                            }
-                        }
-                    }
+                    MemoryAccess access = new MemoryAccess(name, instruction, memory, executor, vectorRegisters);
+                    while (!access.poll());
 
-                    if (instruction.isBranchingInstruction()) {
-                        int cond = instruction.getCondCode();
-                        if(cond != 7) {
-                            // If true, branch to PC, else do nothing
-                            if (instruction.checkCond(registers.getCND())) {
-                                PC = registers.get(15);
-                                registers.setPC(PC + params.get(0) - 1);
-                            }
-                        } else { //looping back
-                             int lr = registers.getLR();
-                             registers.setPC(lr);
-                        }
-                    }
+                    if (instruction.isBranchingInstruction())
+                        registers.setPC(executor.resolveBranch(instruction, registers.getPC()));
 
                     break;
                 }
-                case "Write Back": {
-
-                    for (Instruction.AddressValuePair avp: instruction.getAVPsToWriteBack(true)) {
-                        int opCode = instruction.getOpCode();
-                        int type = instruction.getType();
-
-                        if ((type == 8 && opCode == 7) || (type == 9 && opCode == 2)) { // Append immediate for vectors(sort of)
-                            vectorRegisters.append(avp.address, avp.value);
-                            continue;
-                        }
-
-                        registers.set(avp.address, avp.value);
-                    }
-                    for (Instruction.VectorValuePair vp: instruction.getVPtoWriteBack(true)) {
-                        ArrayList<Integer> val = new ArrayList<>();
-                        for (int k = 0; k < vp.vlen; k++) {
-                            val.add(vp.value[k]);
-                        }
-                        vectorRegisters.set(vp.address, val);
-                    }
+                case "Write Back":
+                    executor.writeBack(instruction);
+                    scoreboard.writeBack(instruction);
+                    instructionCount.incrementAndGet();
                     break;
-                }
             }
 
             instruction.addStage(name);
             finishedRun = true;
 
             if (instruction.toString().equals("HALT")) {
-                System.out.println("Reached HALT Instruction (INSTR_" + instruction.id + ")");
-                Main.print("Reached HALT Instruction (INSTR_" + instruction.id + ")");
+                Simulation.log("Reached HALT Instruction (INSTR_" + instruction.id + ")");
                 endID = instruction.id;
 
                 this.instruction = null;
@@ -723,22 +196,21 @@ public class Pipeline implements NotifyAvailable {
             }
 
             if (dependsOnInstr != null) {
-                System.out.println("INSTR_" + instruction.id + ": Stalled until INSTR_" + dependsOnInstr.id + " writes back");
-                Main.print("INSTR_" + instruction.id + ": Stalled until INSTR_" + dependsOnInstr.id + " writes back");
+                Simulation.log("INSTR_" + instruction.id + ": Stalled until INSTR_" + dependsOnInstr.id + " writes back");
 
                 dependsOnInstr.addCallback("Write Back", () -> {
-                    System.out.println("INSTR_" + instruction.id + ": No longer stalled");
-                    Main.print("INSTR_" + instruction.id + ": No longer stalled");
+                    Simulation.log("INSTR_" + i.id + ": No longer stalled");
 
                     stalled = false;
-                    stageFinished();
+                    stageFinished(i);
                 });
             } else {
-                stageFinished();
+                stageFinished(i);
             }
         }
 
-        private void stageFinished() {
+        // Takes the instruction rather than reading the field, nextStageAvailable() can hand it on from another thread first
+        private void stageFinished(Instruction instruction) {
             // Checks if there are any callbacks associated with current stage
             instruction.runCallbacks(name);
 
@@ -748,11 +220,8 @@ public class Pipeline implements NotifyAvailable {
                     runOnNextStage();
                 }
             } else {
-                currInstructions.remove(instruction);
-
                 // Last stage of pipeline
-                System.out.println("INSTR_" + instruction.id + ": Pipeline finished");
-                Main.print("INSTR_" + instruction.id + ": Pipeline finished");
+                Simulation.log("INSTR_" + instruction.id + ": Pipeline finished");
                 notifyLastStage();
 
                 if (instruction.id >= endID - 1)
@@ -761,8 +230,10 @@ public class Pipeline implements NotifyAvailable {
             }
         }
 
-        public void runOnNextStage() {
-            if (stalled || instruction == null) return;
+        // Both the stage's own thread and the next stage's can get here for the same instruction,
+        // synchronized so only one of them hands it on (and not the next instruction once it has arrived)
+        public synchronized void runOnNextStage() {
+            if (stalled || instruction == null || !finishedRun) return;
 
             nextStageAvailable = false;
             Instruction instrForNextStage = instruction;
@@ -797,19 +268,6 @@ public class Pipeline implements NotifyAvailable {
                 runOnNextStage();
             }
         }
-
-        private int compare(int a, int b) {
-            String binStr = "";
-
-            binStr = (a == b ? "1" : "0") + binStr; // EQ
-            binStr = (a != b ? "1" : "0") + binStr; // NE
-            binStr = (a > b ? "1" : "0") + binStr;  // GT
-            binStr = (a >= b ? "1" : "0") + binStr; // GTE
-            binStr = (a < b ? "1" : "0") + binStr;  // LT
-            binStr = (a <= b ? "1" : "0") + binStr; // LTE
-
-            return Integer.parseInt(binStr, 2);
-        }
     }
 }
 
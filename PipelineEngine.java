@@ -0,0 +1,12 @@
+// Common entry point of the pipeline implementations, completed is run once the program reaches HALT
+public interface PipelineEngine {
+    // Fetch reads from instructionMemory, Memory Access uses dataMemory
+    void run(int programAddress, boolean usePipeline, Memory instructionMemory, Memory dataMemory, Runnable completed);
+
+    default void run(int programAddress, boolean usePipeline, Memory memory, Runnable completed) {
+        run(programAddress, usePipeline, memory, memory, completed);
+    }
+
+    // Instructions that went through Write Back in the last run (HALT isn't counted)
+    long getInstructionCount();
+}
@@ -0,0 +1,136 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// An assembled program: segments of words with the address each one loads at, and the address to start running from.
+// Loading copies every segment straight into memory, so it costs nothing in simulated time however long the program is.
+// Saved as: magic, entry point, segment count, then per segment its address, flags (TEXT), length and words
+// (big endian, as DataOutputStream writes them)
+public class ProgramImage {
+    public static final int MAGIC = 0x31495056; // "VPI1"
+    public static final int TEXT = 1; // Segment flag, the segment holds instructions rather than data
+
+    public static class Segment {
+        public final int address;
+        public final int flags;
+        public final int[] words;
+
+        public Segment(int address, int flags, int[] words) {
+            this.address = address;
+            this.flags = flags;
+            this.words = words;
+        }
+
+        public boolean isText() {
+            return (flags & TEXT) != 0;
+        }
+    }
+
+    private final int entryPoint;
+    private final ArrayList<Segment> segments = new ArrayList<>();
+
+    public ProgramImage(int entryPoint) {
+        this.entryPoint = entryPoint;
+    }
+
+    public void addSegment(int address, int flags, int[] words) {
+        segments.add(new Segment(address, flags, words));
+    }
+
+    // Assembles the program's lines (see Assembler), isBinary lines are the instruction words written out in binary
+    // instead and become one text segment at address, with a HALT after them if the program doesn't end with END
+    public static ProgramImage assemble(List<String> lines, int address, boolean isBinary) {
+        if (!isBinary)
+            return Assembler.assemble(lines, address);
+
+        boolean ended = !lines.isEmpty() && lines.get(lines.size() - 1).equals("END");
+        int[] words = new int[lines.size() + (ended ? 0 : 1)];
+
+        for (int i = 0; i < lines.size(); i++)
+            words[i] = lines.get(i).equals("END") ? Instruction.HALT : Integer.parseInt(lines.get(i), 2);
+        if (!ended)
+            words[words.length - 1] = Instruction.HALT;
+
+        ProgramImage image = new ProgramImage(address);
+        image.addSegment(address, TEXT, words);
+        return image;
+    }
+
+    // Copies every segment into memory without waiting on it. Caches in front of it still hold whatever they held,
+    // the caller has to flush and invalidate them
+    public void loadInto(Memory memory) {
+        for (Segment segment : segments)
+            memory.postBlock(segment.address, segment.words, segment.words.length);
+    }
+
+    public int getEntryPoint() {
+        return entryPoint;
+    }
+
+    public List<Segment> getSegments() {
+        return Collections.unmodifiableList(segments);
+    }
+
+    public void write(Path file) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(entryPoint);
+            out.writeInt(segments.size());
+
+            for (Segment segment : segments) {
+                out.writeInt(segment.address);
+                out.writeInt(segment.flags);
+                out.writeInt(segment.words.length);
+                for (int word : segment.words)
+                    out.writeInt(word);
+            }
+        }
+    }
+
+    public static ProgramImage read(Path file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC)
+                throw new IOException(file + " isn't a program image");
+
+            ProgramImage image = new ProgramImage(in.readInt());
+            int segmentCount = in.readInt();
+
+            for (int s = 0; s < segmentCount; s++) {
+                int address = in.readInt();
+                int flags = in.readInt();
+                int[] words = new int[in.readInt()];
+                for (int i = 0; i < words.length; i++)
+                    words[i] = in.readInt();
+
+                image.addSegment(address, flags, words);
+            }
+
+            return image;
+        }
+    }
+
+    // Usage: java ProgramImage Programs/file.txt file.vpi [address]
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.out.println("Usage: java ProgramImage Programs/file.txt file.vpi [address]");
+            return;
+        }
+
+        int address = args.length > 2 ? Integer.parseInt(args[2]) : Simulator.PROGRAM_ADDRESS;
+        ProgramImage image = Assembler.assemble(Paths.get(args[0]), address);
+        image.write(Paths.get(args[1]));
+
+        int words = 0;
+        for (Segment segment : image.getSegments())
+            words += segment.words.length;
+        System.out.println(args[1] + ": " + image.getSegments().size() + " segment(s), " + words + " words, entry " + image.getEntryPoint());
+    }
+}
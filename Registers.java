@@ -10,13 +10,19 @@ public class Registers {
     public ObservableList<SimpleIntegerProperty> registerData;
 
     public Registers(int size) {
+        this(size, true);
+    }
+
+    public Registers(int size, boolean showUI) {
         data = new int[size];
 
         // Setup observable list for table
-        ArrayList<SimpleIntegerProperty> dataList = new ArrayList<>();
-        for (int i = 0; i < 16; i++)
-            dataList.add(new SimpleIntegerProperty(0));
-        registerData = FXCollections.observableList(dataList);
+        if (showUI) {
+            ArrayList<SimpleIntegerProperty> dataList = new ArrayList<>();
+            for (int i = 0; i < 16; i++)
+                dataList.add(new SimpleIntegerProperty(0));
+            registerData = FXCollections.observableList(dataList);
+        }
     }
 
     // Can access registers 0 -> 12, 13/14/15 are special registers
@@ -25,7 +31,8 @@ public class Registers {
     // 15 is Program Counter
     public void set(int register, int value) {
         data[register] = value;
-        registerData.get(register).set(value);
+        if (registerData != null)
+            registerData.get(register).set(value);
     }
 
     public int getCND() {
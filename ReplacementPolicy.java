@@ -0,0 +1,262 @@
+import java.util.Arrays;
+import java.util.Random;
+
+// Picks which way of a set a cache evicts. The cache fills empty ways itself, victim() is only asked once a set is full.
+// touch() runs on every hit so it has to be constant time
+public interface ReplacementPolicy {
+    void touch(int set, int way);
+
+    // A line was just brought into way
+    void fill(int set, int way);
+
+    int victim(int set);
+
+    // Value shown in the cache table's LRU column
+    int state(int set, int way);
+
+    // lru, plru, srrip, brrip, fifo or random
+    static ReplacementPolicy create(String name, int numSets, int ways) {
+        switch (name.toLowerCase()) {
+            case "lru":
+                return new LruPolicy(numSets, ways);
+            case "plru":
+                return new TreePlruPolicy(numSets, ways);
+            case "srrip":
+                return new RripPolicy(numSets, ways, false);
+            case "brrip":
+                return new RripPolicy(numSets, ways, true);
+            case "fifo":
+                return new FifoPolicy(numSets, ways);
+            case "random":
+                return new RandomPolicy(ways);
+            default:
+                throw new IllegalArgumentException("Unknown replacement policy: " + name);
+        }
+    }
+}
+
+// True LRU, each set keeps its ways in a doubly linked list from most to least recently used
+class LruPolicy implements ReplacementPolicy {
+    private final int ways;
+    private final int[] prev, next; // Indexed by set * ways + way, -1 ends the list
+    private final int[] head, tail;
+
+    public LruPolicy(int numSets, int ways) {
+        this.ways = ways;
+        prev = new int[numSets * ways];
+        next = new int[numSets * ways];
+        head = new int[numSets];
+        tail = new int[numSets];
+
+        for (int set = 0; set < numSets; set++) {
+            for (int way = 0; way < ways; way++) {
+                prev[set * ways + way] = way - 1;
+                next[set * ways + way] = way + 1 < ways ? way + 1 : -1;
+            }
+            head[set] = 0;
+            tail[set] = ways - 1;
+        }
+    }
+
+    @Override
+    public void touch(int set, int way) {
+        if (head[set] == way) return;
+
+        int base = set * ways;
+
+        // Unlink
+        next[base + prev[base + way]] = next[base + way];
+        if (next[base + way] != -1)
+            prev[base + next[base + way]] = prev[base + way];
+        else
+            tail[set] = prev[base + way];
+
+        // Push to the front
+        prev[base + way] = -1;
+        next[base + way] = head[set];
+        prev[base + head[set]] = way;
+        head[set] = way;
+    }
+
+    @Override
+    public void fill(int set, int way) {
+        touch(set, way);
+    }
+
+    @Override
+    public int victim(int set) {
+        return tail[set];
+    }
+
+    @Override
+    public int state(int set, int way) {
+        int position = 0;
+        for (int w = head[set]; w != way; w = next[set * ways + w])
+            position++;
+
+        return position;
+    }
+}
+
+// Tree pseudo LRU, ways - 1 bits per set each pointing to the half of its subtree to evict from next
+class TreePlruPolicy implements ReplacementPolicy {
+    private final int ways, levels;
+    private final long[] bits;
+
+    public TreePlruPolicy(int numSets, int ways) {
+        if (Integer.bitCount(ways) != 1 || ways > 64)
+            throw new IllegalArgumentException("Tree PLRU needs a power of two number of ways up to 64: " + ways);
+
+        this.ways = ways;
+        this.levels = Integer.numberOfTrailingZeros(ways);
+        this.bits = new long[numSets];
+    }
+
+    // Walks from the root to way, pointing every node on the path away from it
+    @Override
+    public void touch(int set, int way) {
+        int node = 0;
+
+        for (int level = levels - 1; level >= 0; level--) {
+            int right = (way >> level) & 1;
+
+            if (right == 1)
+                bits[set] &= ~(1L << node);
+            else
+                bits[set] |= 1L << node;
+
+            node = 2 * node + 1 + right;
+        }
+    }
+
+    @Override
+    public void fill(int set, int way) {
+        touch(set, way);
+    }
+
+    @Override
+    public int victim(int set) {
+        int node = 0, way = 0;
+
+        for (int level = 0; level < levels; level++) {
+            int right = (int) (bits[set] >> node) & 1;
+            way = (way << 1) | right;
+            node = 2 * node + 1 + right;
+        }
+
+        return way;
+    }
+
+    @Override
+    public int state(int set, int way) {
+        return victim(set) == way ? 1 : 0;
+    }
+}
+
+// Re-reference interval prediction with 2 bit values (Jaleel et al.). Hits predict a near re-reference (0),
+// SRRIP inserts new lines at a long interval (2) and BRRIP at a distant one (3) except every 32nd fill,
+// so a scan through more lines than the cache holds doesn't push out the lines being reused
+class RripPolicy implements ReplacementPolicy {
+    private static final int MAX_RRPV = 3;
+    private static final int BIMODAL_PERIOD = 32;
+
+    private final int ways;
+    private final byte[] rrpv;
+    private final boolean bimodal;
+    private int fills = 0;
+
+    public RripPolicy(int numSets, int ways, boolean bimodal) {
+        this.ways = ways;
+        this.bimodal = bimodal;
+        this.rrpv = new byte[numSets * ways];
+
+        Arrays.fill(rrpv, (byte) MAX_RRPV);
+    }
+
+    @Override
+    public void touch(int set, int way) {
+        rrpv[set * ways + way] = 0;
+    }
+
+    @Override
+    public void fill(int set, int way) {
+        boolean distant = bimodal && (fills++ % BIMODAL_PERIOD) != 0;
+        rrpv[set * ways + way] = (byte) (distant ? MAX_RRPV : MAX_RRPV - 1);
+    }
+
+    // First way predicted to be re-referenced in the distant future, ageing the whole set until there is one
+    @Override
+    public int victim(int set) {
+        int base = set * ways;
+
+        while (true) {
+            for (int way = 0; way < ways; way++)
+                if (rrpv[base + way] == MAX_RRPV)
+                    return way;
+
+            for (int way = 0; way < ways; way++)
+                rrpv[base + way]++;
+        }
+    }
+
+    @Override
+    public int state(int set, int way) {
+        return rrpv[set * ways + way];
+    }
+}
+
+// Evicts in the order lines were brought in, hits don't change anything
+class FifoPolicy implements ReplacementPolicy {
+    private final int ways;
+    private final int[] nextOut;
+
+    public FifoPolicy(int numSets, int ways) {
+        this.ways = ways;
+        this.nextOut = new int[numSets];
+    }
+
+    @Override
+    public void touch(int set, int way) { }
+
+    // Sets fill their empty ways in order, so the oldest line is the one after the last filled way
+    @Override
+    public void fill(int set, int way) {
+        nextOut[set] = (way + 1) % ways;
+    }
+
+    @Override
+    public int victim(int set) {
+        return nextOut[set];
+    }
+
+    @Override
+    public int state(int set, int way) {
+        return Math.floorMod(way - nextOut[set], ways);
+    }
+}
+
+// Uniformly random victim, seeded so runs are repeatable
+class RandomPolicy implements ReplacementPolicy {
+    private final int ways;
+    private final Random random = new Random(535);
+
+    public RandomPolicy(int ways) {
+        this.ways = ways;
+    }
+
+    @Override
+    public void touch(int set, int way) { }
+
+    @Override
+    public void fill(int set, int way) { }
+
+    @Override
+    public int victim(int set) {
+        return random.nextInt(ways);
+    }
+
+    @Override
+    public int state(int set, int way) {
+        return 0;
+    }
+}
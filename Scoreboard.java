@@ -0,0 +1,56 @@
+// Registers with a write in flight, so Decode checks an instruction's operands with one mask test instead of
+// comparing it against every instruction in the pipeline. An instruction is entered when it issues and leaves at
+// Write Back; for every register the scoreboard keeps how many writes are pending and the youngest writer.
+// Bits are DecodedInstruction's register masks: R0-R15 (CND is R13) then V0-V15
+public class Scoreboard {
+    private final int[] pending = new int[32];
+    private final Instruction[] youngest = new Instruction[32];
+    private int busy; // Registers with at least one pending write
+
+    public synchronized void clear() {
+        for (int bit = 0; bit < pending.length; bit++) {
+            pending[bit] = 0;
+            youngest[bit] = null;
+        }
+        busy = 0;
+    }
+
+    public synchronized void issue(Instruction instruction) {
+        for (int mask = instruction.getWriteMask(); mask != 0; mask &= mask - 1) {
+            int bit = Integer.numberOfTrailingZeros(mask);
+            pending[bit]++;
+            youngest[bit] = instruction;
+        }
+
+        busy |= instruction.getWriteMask();
+    }
+
+    // Writes back in program order, so once a register has nothing pending its youngest writer is gone too
+    public synchronized void writeBack(Instruction instruction) {
+        for (int mask = instruction.getWriteMask(); mask != 0; mask &= mask - 1) {
+            int bit = Integer.numberOfTrailingZeros(mask);
+            if (pending[bit] > 0 && --pending[bit] == 0) {
+                youngest[bit] = null;
+                busy &= ~(1 << bit);
+            }
+        }
+    }
+
+    // Registers in mask that still have a write pending
+    public synchronized int pending(int mask) {
+        return mask & busy;
+    }
+
+    // Youngest instruction with a write pending to any register in mask, null if there isn't one
+    public synchronized Instruction youngestWriter(int mask) {
+        Instruction writer = null;
+
+        for (mask &= busy; mask != 0; mask &= mask - 1) {
+            Instruction other = youngest[Integer.numberOfTrailingZeros(mask)];
+            if (writer == null || other.id > writer.id)
+                writer = other;
+        }
+
+        return writer;
+    }
+}
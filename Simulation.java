@@ -0,0 +1,104 @@
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+
+// Hooks the simulator core reports through, so it can run under the JavaFX UI (Main) or headless (Simulator)
+public class Simulation {
+
+    private static SimulationListener listener = null;
+    private static boolean verbose = true;
+    private static volatile boolean steppedClock = false;
+    private static final AtomicLong clock = new AtomicLong(); // Every cycle() and skipped cycle so far, never reset
+    private static final PriorityQueue<Long> events = new PriorityQueue<>(); // Cycles memory requests finish at
+    private static final AtomicInteger blocking = new AtomicInteger(); // Blocking waits in progress, see blockingWait()
+
+    public static void setListener(SimulationListener simulationListener) {
+        listener = simulationListener;
+    }
+
+    // Turning this off skips building the per stage log lines, which is most of the host time on long runs
+    public static void setVerbose(boolean isVerbose) {
+        verbose = isVerbose;
+    }
+
+    public static boolean isVerbose() {
+        return verbose;
+    }
+
+    // Set while an engine that advances the clock itself (SteppedPipeline) is running
+    public static void setSteppedClock(boolean isStepped) {
+        steppedClock = isStepped;
+    }
+
+    public static void cycle() {
+        clock.incrementAndGet();
+        if (listener != null)
+            listener.cycle();
+    }
+
+    // Current cycle, memories time their requests by it
+    public static long now() {
+        return clock.get();
+    }
+
+    // Something will be ready at cycle at, a clock with nothing else to do can skip ahead to it
+    public static synchronized void schedule(long at) {
+        events.add(at);
+    }
+
+    // Earliest scheduled event after now, -1 if there is none
+    public static synchronized long nextEvent() {
+        long now = now();
+        while (!events.isEmpty() && events.peek() <= now)
+            events.poll();
+
+        return events.isEmpty() ? -1 : events.peek();
+    }
+
+    // Moves the clock straight to cycle at, every cycle skipped is counted as one
+    public static void skipTo(long at) {
+        long skipped = at - clock.getAndAccumulate(at, Math::max);
+        if (skipped > 0 && listener != null)
+            listener.cycles(skipped);
+    }
+
+    // A poll has to wait until cycle at. An engine that keeps its own clock (SteppedPipeline) skips ahead once every
+    // stage is waiting, otherwise the requester spinning on the poll is all there is, so the clock jumps there now
+    public static void waitUntil(long at) {
+        if (!steppedClock || blocking.get() > 0)
+            skipTo(at);
+    }
+
+    // Spins until done is true. A blocking cache writing back or handing down a victim in the middle of an access can't
+    // give its cycle back and poll again later, so the clock moves on through the wait even under an engine that keeps
+    // its own clock, and the access that caused it pays for it
+    public static void blockingWait(BooleanSupplier done) {
+        blocking.incrementAndGet();
+        try {
+            while (!done.getAsBoolean());
+        } finally {
+            blocking.decrementAndGet();
+        }
+    }
+
+    // A poll had to wait on something with no set finish time (e.g. a full write buffer), counted as one cycle
+    // when the engine doesn't keep its own clock
+    public static void stallCycle() {
+        if (!steppedClock || blocking.get() > 0)
+            cycle();
+    }
+
+    public static void log(String output) {
+        if (!verbose) return;
+
+        System.out.println(output);
+        if (listener != null)
+            listener.print(output);
+    }
+
+    public static void refreshMemoryTable() {
+        if (listener != null)
+            listener.refreshMemoryTable();
+    }
+}
@@ -0,0 +1,13 @@
+// What Simulation reports to: the JavaFX UI (Main) or the headless runner (Simulator)
+public interface SimulationListener {
+    void cycle();
+
+    // count cycles passed at once (the clock skipped ahead)
+    default void cycles(long count) {
+        for (long i = 0; i < count; i++)
+            cycle();
+    }
+
+    void print(String output);
+    void refreshMemoryTable();
+}
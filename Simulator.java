@@ -0,0 +1,583 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Builds the memory, cache, registers and pipeline without the JavaFX UI, so programs can be run in batch
+// Usage: java Simulator [--stepped] [--cache sets:ways:line] [--policy name] [--hierarchy] [--l1i|--l1d|--l2|--l3 sets:ways:line:latency[:policy]] [--inclusion type] [--mshrs n] [--write-buffer n] [--off-heap] [--image file] [--save-image file] [--no-cache] [--no-pipeline] [--forwarding] [--predictor none|btfn|bimodal|gshare] [--btb n] [--ooo] [--rob n] [--iq n] [--lsq n] [--width n] [--alus n] [--vector-units n] [--memory-ports n] [--vector-lanes n] [--vector-startup n] [--chaining] [--mvl n] [--keep-state] [--verbose] [--dump from:to] Programs/file.txt|file.vpi ...
+public class Simulator implements SimulationListener {
+    public static final int PROGRAM_ADDRESS = 24000;
+    private static final int PREDICTOR_BITS = 10; // 1024 counters
+
+    private final boolean showUI;
+    private boolean stepped = false;
+    private boolean outOfOrder = false;
+    private int robSize = 32, issueQueueSize = 16, loadStoreQueueSize = 16;
+    private boolean forwarding = false;
+    private String branchPredictor = "none";
+    private int btbEntries = 64;
+    private int issueWidth = 1, alus = 1, vectorUnits = 1, memoryPorts = 1;
+    private int vectorLanes = 0, vectorStartup = 4;
+    private boolean chaining = false;
+    private int maxVectorLength = 16;
+    private int cacheSets = 4, cacheWays = 4, cacheLineLength = 4;
+    private String cachePolicy = "lru";
+    private CacheHierarchy.Level l1iLevel, l1dLevel, l2Level, l3Level;
+    private Cache.Inclusion inclusion;
+    private CacheHierarchy hierarchy = null;
+    private int mshrs = 0, writeBufferEntries = 0;
+    private boolean offHeapMemory = false;
+    private final AtomicLong cycles = new AtomicLong();
+
+    private Memory RAM;
+    private Cache cache;
+    private Registers registers;
+    private VectorRegisters vectorRegisters;
+    private PipelineEngine pipeline;
+
+    public Simulator(boolean showUI) {
+        this.showUI = showUI;
+        setup();
+    }
+
+    public void setup() {
+        if (RAM instanceof PagedMemory)
+            ((PagedMemory) RAM).release(); // So the next program reuses its pages
+
+        // The UI's memory table needs a line object per line, headless runs get the whole address space instead
+        RAM = showUI ? new Memory(8000, 4, 100, true) : new PagedMemory(4, 100, PagedMemory.DEFAULT_PAGE_WORDS, offHeapMemory);
+        if (l2Level != null) {
+            hierarchy = new CacheHierarchy(RAM, l1iLevel, l1dLevel, l2Level, l3Level, inclusion, showUI);
+            cache = hierarchy.getL1D();
+        } else {
+            hierarchy = null;
+            cache = new Cache(cacheSets, cacheWays, cacheLineLength,
+                    ReplacementPolicy.create(cachePolicy, cacheSets, cacheWays), RAM, showUI);
+        }
+        if (mshrs > 0) {
+            RAM.setPipelined(true);
+            if (hierarchy != null)
+                hierarchy.setMshrs(mshrs);
+            else
+                cache.setMshrs(mshrs);
+        }
+        if (hierarchy != null)
+            hierarchy.setWriteBuffer(writeBufferEntries);
+        else
+            cache.setWriteBuffer(writeBufferEntries);
+        registers = new Registers(16, showUI);
+        vectorRegisters = new VectorRegisters(16, maxVectorLength, showUI);
+        pipeline = createPipeline();
+    }
+
+    // Stepped runs every stage from one loop on the calling thread, otherwise each stage handoff starts a thread
+    public void setStepped(boolean stepped) {
+        this.stepped = stepped;
+        pipeline = createPipeline();
+    }
+
+    // Runs programs on the out of order engine instead (see OutOfOrderPipeline), with the given reorder buffer, issue
+    // queue and load/store queue sizes. Takes the width, units and predictor like a stepped run
+    public void setOutOfOrder(boolean outOfOrder, int robSize, int issueQueueSize, int loadStoreQueueSize) {
+        this.outOfOrder = outOfOrder;
+        this.robSize = robSize;
+        this.issueQueueSize = issueQueueSize;
+        this.loadStoreQueueSize = loadStoreQueueSize;
+        pipeline = createPipeline();
+    }
+
+    // Forwards results between pipeline stages instead of stalling dependant instructions until write back (stepped only)
+    public void setForwarding(boolean forwarding) {
+        this.forwarding = forwarding;
+        if (pipeline instanceof SteppedPipeline)
+            ((SteppedPipeline) pipeline).setForwarding(forwarding);
+    }
+
+    // Instructions fetched, issued and written back per cycle, and how many of them can use an ALU, a vector unit and a
+    // memory port in the same cycle (stepped only)
+    public void setIssueWidth(int width, int alus, int vectorUnits, int memoryPorts) {
+        this.issueWidth = width;
+        this.alus = alus;
+        this.vectorUnits = vectorUnits;
+        this.memoryPorts = memoryPorts;
+        if (pipeline instanceof SteppedPipeline)
+            ((SteppedPipeline) pipeline).setWidth(width, alus, vectorUnits, memoryPorts);
+        if (pipeline instanceof OutOfOrderPipeline)
+            ((OutOfOrderPipeline) pipeline).setWidth(width, alus, vectorUnits, memoryPorts);
+    }
+
+    // Times vector arithmetic on a VectorUnit with that many lanes and startup cycles (stepped and out of order only),
+    // 0 lanes finishes it in one cycle. Takes effect on the next setStepped() or setOutOfOrder()
+    public void setVectorUnit(int lanes, int startup, boolean chaining) {
+        if (lanes > 0)
+            new VectorUnit(lanes, startup, chaining); // Throws on a bad configuration now rather than later
+        this.vectorLanes = lanes;
+        this.vectorStartup = startup;
+        this.chaining = chaining;
+    }
+
+    // Takes effect on the next setup() or setStepped(): "none" stalls Fetch at every branch, otherwise see
+    // BranchPredictor.create (stepped only). Taken branches are fetched past through a btbEntries entry BTB
+    public void setBranchPredictor(String name, int btbEntries) {
+        if (!name.equals("none"))
+            BranchPredictor.create(name, PREDICTOR_BITS); // Throws on an unknown name now rather than at setup()
+        this.branchPredictor = name;
+        this.btbEntries = btbEntries;
+    }
+
+    private PipelineEngine createPipeline() {
+        if (outOfOrder) {
+            OutOfOrderPipeline outOfOrderPipeline = new OutOfOrderPipeline(registers, vectorRegisters);
+            outOfOrderPipeline.setWidth(issueWidth, alus, vectorUnits, memoryPorts);
+            outOfOrderPipeline.setWindow(robSize, issueQueueSize, loadStoreQueueSize);
+            if (vectorLanes > 0)
+                outOfOrderPipeline.setVectorUnit(new VectorUnit(vectorLanes, vectorStartup, chaining));
+            if (!branchPredictor.equals("none"))
+                outOfOrderPipeline.setBranchPredictor(BranchPredictor.create(branchPredictor, PREDICTOR_BITS), new BranchTargetBuffer(btbEntries));
+            return outOfOrderPipeline;
+        }
+        if (!stepped)
+            return new Pipeline(registers, vectorRegisters);
+
+        SteppedPipeline steppedPipeline = new SteppedPipeline(registers, vectorRegisters);
+        steppedPipeline.setForwarding(forwarding);
+        steppedPipeline.setWidth(issueWidth, alus, vectorUnits, memoryPorts);
+        if (vectorLanes > 0)
+            steppedPipeline.setVectorUnit(new VectorUnit(vectorLanes, vectorStartup, chaining));
+        if (!branchPredictor.equals("none"))
+            steppedPipeline.setBranchPredictor(BranchPredictor.create(branchPredictor, PREDICTOR_BITS), new BranchTargetBuffer(btbEntries));
+        return steppedPipeline;
+    }
+
+    // Takes effect on the next setup(): elements per vector register (MVL), what SETVL caps VL at
+    public void setMaxVectorLength(int maxVectorLength) {
+        if (maxVectorLength < VectorRegisters.MIN_VECTOR_SIZE || maxVectorLength > VectorRegisters.MAX_VECTOR_SIZE)
+            throw new IllegalArgumentException("Maximum vector length has to be " + VectorRegisters.MIN_VECTOR_SIZE + " to "
+                    + VectorRegisters.MAX_VECTOR_SIZE + ": " + maxVectorLength);
+
+        this.maxVectorLength = maxVectorLength;
+    }
+
+    // Takes effect on the next setup(), sets and lineLength (in words) have to be powers of two
+    public void setCacheGeometry(int sets, int ways, int lineLength) {
+        this.cacheSets = sets;
+        this.cacheWays = ways;
+        this.cacheLineLength = lineLength;
+    }
+
+    // Takes effect on the next setup(), see ReplacementPolicy.create for the names
+    public void setReplacementPolicy(String policy) {
+        this.cachePolicy = policy;
+    }
+
+    // Takes effect on the next setup(): Fetch goes through l1i, Memory Access through l1d, both backed by l2 (and l3 if not null)
+    public void setHierarchy(CacheHierarchy.Level l1i, CacheHierarchy.Level l1d, CacheHierarchy.Level l2, CacheHierarchy.Level l3, Cache.Inclusion inclusion) {
+        this.l1iLevel = l1i;
+        this.l1dLevel = l1d;
+        this.l2Level = l2;
+        this.l3Level = l3;
+        this.inclusion = inclusion;
+    }
+
+    // Takes effect on the next setup(): n > 0 makes every cache non-blocking with n MSHRs and RAM pipelined,
+    // so misses overlap instead of being served one at a time
+    public void setMshrs(int n) {
+        this.mshrs = n;
+    }
+
+    // Takes effect on the next setup(): keeps headless RAM pages outside the Java heap
+    public void setOffHeapMemory(boolean offHeap) {
+        this.offHeapMemory = offHeap;
+    }
+
+    // Takes effect on the next setup(): gives every cache a write buffer of n lines (0 for none)
+    public void setWriteBuffer(int n) {
+        this.writeBufferEntries = n;
+    }
+
+    // Assembles the program and loads it straight into RAM (see loadProgram), returns its text with END on the end
+    public String loadInstructions(int programAddress, String fileName, boolean useCache, boolean isBinary) throws IOException {
+        List<String> lines = Files.readAllLines(Paths.get(fileName));
+        loadProgram(ProgramImage.assemble(lines, programAddress, isBinary), useCache);
+
+        String programText = String.join("\n", lines);
+        if (!programText.endsWith("END"))
+            programText += (programText.isEmpty() ? "" : "\n") + "END";
+
+        return programText;
+    }
+
+    // Copies the image's segments into RAM without going through the caches, then writes back and drops
+    // everything the caches held so the program starts cold and can't read stale lines. Returns the entry point
+    public int loadProgram(ProgramImage image, boolean useCache) {
+        image.loadInto(RAM);
+
+        if (useCache) {
+            if (hierarchy != null)
+                hierarchy.invalidate();
+            else
+                cache.invalidate();
+        }
+
+        return image.getEntryPoint();
+    }
+
+    // Maps a memory image saved by saveImage into RAM (headless only). Call right after setup(), the caches start empty
+    public void mapImage(Path file) throws IOException {
+        if (!(RAM instanceof PagedMemory))
+            throw new IllegalStateException("Memory images need the headless (paged) RAM");
+
+        ((PagedMemory) RAM).mapImage(file);
+    }
+
+    // Writes the dirty cache lines back and saves RAM (program and data) as an image mapImage can map
+    public void saveImage(Path file) throws IOException {
+        if (!(RAM instanceof PagedMemory))
+            throw new IllegalStateException("Memory images need the headless (paged) RAM");
+
+        if (hierarchy != null)
+            hierarchy.flush();
+        else
+            cache.flush();
+
+        ((PagedMemory) RAM).saveImage(file);
+    }
+
+    // Runs the program already loaded at programAddress and blocks until it halts, returns the cycles it took
+    public long run(int programAddress, boolean usePipeline, boolean useCache) throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(1);
+
+        cycles.set(0);
+        Memory instructionMemory = !useCache ? RAM : (hierarchy != null ? hierarchy.getL1I() : cache);
+        pipeline.run(programAddress, usePipeline, instructionMemory, useCache ? cache : RAM, done::countDown);
+        done.await();
+
+        return cycles.get();
+    }
+
+    public void printState() {
+        StringBuilder sb = new StringBuilder("Registers:");
+        for (int i = 0; i < 16; i++)
+            sb.append(" R").append(i).append("=").append(registers.get(i));
+        System.out.println(sb);
+
+        for (int i = 0; i < 16; i++)
+            vectorRegisters.print(i);
+
+        if (pipeline instanceof SteppedPipeline && ((SteppedPipeline) pipeline).isForwarding()) {
+            SteppedPipeline steppedPipeline = (SteppedPipeline) pipeline;
+            System.out.println("Forwarded operands: EX->EX " + steppedPipeline.getExToExForwards() + ", MEM->EX "
+                    + steppedPipeline.getMemToExForwards() + ", WB->MEM " + steppedPipeline.getWbToMemForwards());
+        }
+
+        if (pipeline instanceof SteppedPipeline && ((SteppedPipeline) pipeline).getBranchPredictor() != null) {
+            SteppedPipeline steppedPipeline = (SteppedPipeline) pipeline;
+            long branches = steppedPipeline.getBranches();
+            BranchTargetBuffer btb = steppedPipeline.getBranchTargetBuffer();
+            System.out.println("Branches: " + branches + ", " + String.format("%.1f", branches == 0 ? 100.0 : 100.0 * (branches - steppedPipeline.getMispredictions()) / branches)
+                    + "% predicted (" + steppedPipeline.getMispredictions() + " mispredicted), BTB " + btb.getMisses() + "/" + btb.getLookups() + " misses, "
+                    + steppedPipeline.getSpeculativeKept() + " fetches past unresolved branches kept (bubbles saved), " + steppedPipeline.getSquashed() + " squashed");
+        }
+
+        if (pipeline instanceof SteppedPipeline && ((SteppedPipeline) pipeline).getWidth() > 1) {
+            SteppedPipeline steppedPipeline = (SteppedPipeline) pipeline;
+            long[] issued = steppedPipeline.getIssueHistogram();
+            StringBuilder histogram = new StringBuilder("Issued per cycle:");
+            for (int n = 0; n < issued.length; n++)
+                histogram.append(" ").append(n).append("=").append(issued[n]);
+            System.out.println(histogram + ", cycles short of a unit: ALU " + steppedPipeline.getAluStalls() + ", vector "
+                    + steppedPipeline.getVectorUnitStalls() + ", memory port " + steppedPipeline.getMemoryPortStalls());
+        }
+
+        if (pipeline instanceof OutOfOrderPipeline) {
+            OutOfOrderPipeline outOfOrderPipeline = (OutOfOrderPipeline) pipeline;
+            long[] issued = outOfOrderPipeline.getIssueHistogram();
+            StringBuilder histogram = new StringBuilder("Out of order: issued per cycle");
+            for (int n = 0; n < issued.length; n++)
+                histogram.append(" ").append(n).append("=").append(issued[n]);
+            System.out.println(histogram + ", rename stalled on a full ROB " + outOfOrderPipeline.getRobFullStalls() + ", issue queue "
+                    + outOfOrderPipeline.getIssueQueueFullStalls() + ", load/store queue " + outOfOrderPipeline.getLoadStoreQueueFullStalls()
+                    + ", loads held by older stores " + outOfOrderPipeline.getLoadsHeld());
+
+            if (outOfOrderPipeline.getBranchPredictor() != null) {
+                long branches = outOfOrderPipeline.getBranches();
+                BranchTargetBuffer btb = outOfOrderPipeline.getBranchTargetBuffer();
+                System.out.println("Branches: " + branches + ", " + String.format("%.1f", branches == 0 ? 100.0 : 100.0 * (branches - outOfOrderPipeline.getMispredictions()) / branches)
+                        + "% predicted (" + outOfOrderPipeline.getMispredictions() + " mispredicted), BTB " + btb.getMisses() + "/" + btb.getLookups() + " misses, "
+                        + outOfOrderPipeline.getSquashed() + " squashed");
+            }
+        }
+
+        VectorUnit vectorUnit = pipeline instanceof SteppedPipeline ? ((SteppedPipeline) pipeline).getVectorUnit()
+                : pipeline instanceof OutOfOrderPipeline ? ((OutOfOrderPipeline) pipeline).getVectorUnit() : null;
+        if (vectorUnit != null)
+            System.out.println("Vector unit: " + vectorUnit.getInstructions() + " instructions, " + vectorUnit.getBusyCycles() + " cycles taking elements in ("
+                    + vectorUnit.getLanes() + " lanes, startup " + vectorUnit.getStartup() + ", chaining " + (vectorUnit.isChaining() ? "on" : "off") + ")");
+
+        if (hierarchy != null)
+            hierarchy.printStats();
+        else if (mshrs > 0 || writeBufferEntries > 0)
+            CacheHierarchy.printStats(cache);
+    }
+
+    @Override
+    public void cycle() {
+        cycles.incrementAndGet();
+    }
+
+    @Override
+    public void cycles(long count) {
+        cycles.addAndGet(count);
+    }
+
+    @Override
+    public void print(String output) { }
+
+    @Override
+    public void refreshMemoryTable() { }
+
+    public long getCycles() {
+        return cycles.get();
+    }
+
+    public Memory getRAM() {
+        return RAM;
+    }
+
+    // The data cache (L1D when running with a hierarchy)
+    public Cache getCache() {
+        return cache;
+    }
+
+    // null unless setHierarchy was used
+    public CacheHierarchy getHierarchy() {
+        return hierarchy;
+    }
+
+    public Registers getRegisters() {
+        return registers;
+    }
+
+    public VectorRegisters getVectorRegisters() {
+        return vectorRegisters;
+    }
+
+    public PipelineEngine getPipeline() {
+        return pipeline;
+    }
+
+    public static void main(String[] args) throws Exception {
+        boolean useCache = true, usePipeline = true, keepState = false, verbose = false, stepped = false, forwarding = false, outOfOrder = false;
+        int robSize = 32, issueQueueSize = 16, loadStoreQueueSize = 16;
+        int cacheSets = 4, cacheWays = 4, cacheLineLength = 4;
+        String cachePolicy = "lru";
+        boolean useHierarchy = false;
+        CacheHierarchy.Level l1i = CacheHierarchy.DEFAULT_L1I, l1d = CacheHierarchy.DEFAULT_L1D, l2 = null, l3 = null;
+        Cache.Inclusion inclusion = Cache.Inclusion.NON_INCLUSIVE;
+        int mshrs = 0, writeBuffer = 0;
+        boolean offHeap = false;
+        String predictor = "none";
+        int btbEntries = 64;
+        int width = 1, alus = -1, vectorUnits = 1, memoryPorts = 1;
+        int vectorLanes = 0, vectorStartup = 4;
+        boolean chaining = false;
+        int maxVectorLength = 16;
+        String image = null, saveImage = null;
+        int dumpFrom = -2, dumpTo = -2;
+        ArrayList<String> programs = new ArrayList<>();
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--stepped":
+                    stepped = true;
+                    break;
+                case "--cache":
+                    String[] geometry = args[++i].split(":");
+                    cacheSets = Integer.parseInt(geometry[0]);
+                    cacheWays = Integer.parseInt(geometry[1]);
+                    cacheLineLength = Integer.parseInt(geometry[2]);
+                    break;
+                case "--policy":
+                    cachePolicy = args[++i];
+                    break;
+                case "--hierarchy":
+                    useHierarchy = true;
+                    break;
+                case "--l1i":
+                    l1i = CacheHierarchy.Level.parse(args[++i]);
+                    useHierarchy = true;
+                    break;
+                case "--l1d":
+                    l1d = CacheHierarchy.Level.parse(args[++i]);
+                    useHierarchy = true;
+                    break;
+                case "--l2":
+                    l2 = CacheHierarchy.Level.parse(args[++i]);
+                    useHierarchy = true;
+                    break;
+                case "--l3":
+                    l3 = CacheHierarchy.Level.parse(args[++i]);
+                    useHierarchy = true;
+                    break;
+                case "--inclusion":
+                    inclusion = Cache.Inclusion.valueOf(args[++i].toUpperCase().replace('-', '_'));
+                    break;
+                case "--mshrs":
+                    mshrs = Integer.parseInt(args[++i]);
+                    break;
+                case "--write-buffer":
+                    writeBuffer = Integer.parseInt(args[++i]);
+                    break;
+                case "--image":
+                    image = args[++i];
+                    break;
+                case "--save-image":
+                    saveImage = args[++i];
+                    break;
+                case "--off-heap":
+                    offHeap = true;
+                    break;
+                case "--no-cache":
+                    useCache = false;
+                    break;
+                case "--no-pipeline":
+                    usePipeline = false;
+                    break;
+                case "--forwarding":
+                    forwarding = true;
+                    break;
+                case "--predictor":
+                    predictor = args[++i];
+                    break;
+                case "--btb":
+                    btbEntries = Integer.parseInt(args[++i]);
+                    break;
+                case "--ooo":
+                    outOfOrder = true;
+                    break;
+                case "--rob":
+                    robSize = Integer.parseInt(args[++i]);
+                    break;
+                case "--iq":
+                    issueQueueSize = Integer.parseInt(args[++i]);
+                    break;
+                case "--lsq":
+                    loadStoreQueueSize = Integer.parseInt(args[++i]);
+                    break;
+                case "--width":
+                    width = Integer.parseInt(args[++i]);
+                    break;
+                case "--alus":
+                    alus = Integer.parseInt(args[++i]);
+                    break;
+                case "--vector-units":
+                    vectorUnits = Integer.parseInt(args[++i]);
+                    break;
+                case "--memory-ports":
+                    memoryPorts = Integer.parseInt(args[++i]);
+                    break;
+                case "--vector-lanes":
+                    vectorLanes = Integer.parseInt(args[++i]);
+                    break;
+                case "--vector-startup":
+                    vectorStartup = Integer.parseInt(args[++i]);
+                    break;
+                case "--chaining":
+                    chaining = true;
+                    break;
+                case "--mvl":
+                    maxVectorLength = Integer.parseInt(args[++i]);
+                    break;
+                case "--keep-state":
+                    keepState = true;
+                    break;
+                case "--verbose":
+                    verbose = true;
+                    break;
+                case "--dump":
+                    String[] range = args[++i].split(":");
+                    dumpFrom = Integer.parseInt(range[0]);
+                    dumpTo = Integer.parseInt(range[1]);
+                    break;
+                default:
+                    programs.add(args[i]);
+                    break;
+            }
+        }
+
+        // An image holds its own program, so it can be run without one
+        boolean runImage = programs.isEmpty() && image != null;
+        if (runImage)
+            programs.add(image);
+
+        if (programs.isEmpty()) {
+            System.out.println("Usage: java Simulator [--stepped] [--cache sets:ways:line] [--policy name] [--hierarchy] [--l1i|--l1d|--l2|--l3 sets:ways:line:latency[:policy]] [--inclusion type] [--mshrs n] [--write-buffer n] [--off-heap] [--image file] [--save-image file] [--no-cache] [--no-pipeline] [--forwarding] [--predictor none|btfn|bimodal|gshare] [--btb n] [--ooo] [--rob n] [--iq n] [--lsq n] [--width n] [--alus n] [--vector-units n] [--memory-ports n] [--vector-lanes n] [--vector-startup n] [--chaining] [--mvl n] [--keep-state] [--verbose] [--dump from:to] Programs/file.txt|file.vpi ...");
+            return;
+        }
+
+        // A pipeline thread dying would leave run() waiting forever, fail the batch instead
+        Thread.setDefaultUncaughtExceptionHandler((t, e) -> {
+            e.printStackTrace();
+            System.exit(1);
+        });
+
+        Simulation.setVerbose(verbose);
+
+        Simulator simulator = new Simulator(false);
+        simulator.setCacheGeometry(cacheSets, cacheWays, cacheLineLength);
+        simulator.setReplacementPolicy(cachePolicy);
+        simulator.setMshrs(mshrs);
+        simulator.setWriteBuffer(writeBuffer);
+        simulator.setOffHeapMemory(offHeap);
+        simulator.setBranchPredictor(predictor, btbEntries);
+        simulator.setVectorUnit(vectorLanes, vectorStartup, chaining);
+        simulator.setMaxVectorLength(maxVectorLength);
+        if (useHierarchy)
+            simulator.setHierarchy(l1i, l1d, l2 != null ? l2 : CacheHierarchy.defaultL2(inclusion), l3, inclusion);
+        simulator.setup();
+        simulator.setStepped(stepped);
+        simulator.setOutOfOrder(outOfOrder, robSize, issueQueueSize, loadStoreQueueSize);
+        simulator.setForwarding(forwarding);
+        simulator.setIssueWidth(width, alus < 0 ? width : alus, vectorUnits, memoryPorts); // One ALU per slot unless told otherwise
+        if ((forwarding || !predictor.equals("none") || width > 1 || vectorLanes > 0) && !stepped && !outOfOrder)
+            System.out.println("--forwarding, --predictor, --width and --vector-lanes only apply to --stepped and --ooo runs");
+        Simulation.setListener(simulator);
+
+        for (int p = 0; p < programs.size(); p++) {
+            String fileName = programs.get(p);
+
+            if (!keepState)
+                simulator.setup();
+            if (image != null && (!keepState || p == 0))
+                simulator.mapImage(Paths.get(image));
+
+            int entryPoint = PROGRAM_ADDRESS;
+            if (fileName.endsWith(".vpi"))
+                entryPoint = simulator.loadProgram(ProgramImage.read(Paths.get(fileName)), useCache);
+            else if (!runImage)
+                simulator.loadInstructions(PROGRAM_ADDRESS, fileName, useCache, false);
+
+            long start = System.nanoTime();
+            long programCycles = simulator.run(entryPoint, usePipeline, useCache);
+            long hostMillis = (System.nanoTime() - start) / 1000000;
+
+            System.out.println("~=~=~=~=~=~=~=~=~=~=~");
+            long instructions = simulator.getPipeline().getInstructionCount();
+            String cpi = instructions == 0 ? "" : String.format(", CPI %.2f", (double) programCycles / instructions);
+            System.out.println(fileName + " ran in " + programCycles + " cycles" + cpi + " (" + hostMillis + " ms host time)");
+            simulator.printState();
+
+            if (dumpFrom != -2)
+                simulator.getRAM().printData(dumpFrom, dumpTo);
+
+            if (saveImage != null)
+                simulator.saveImage(Paths.get(saveImage));
+        }
+
+        System.exit(0);
+    }
+}
@@ -0,0 +1,627 @@
+import java.util.ArrayList;
+
+// Runs the five stages in lockstep from one loop, each iteration is one simulated cycle.
+// No threads are created, so the cycle count of a program is the same on every run.
+// Stages do their work from Write Back down to Fetch (so a value written back can be read by Decode in the
+// same cycle), then every instruction that finished its stage moves on if the next stage is free.
+// With forwarding a dependant instruction doesn't wait in Decode for its producer to write back: a result computed in
+// Execute is forwarded to the next instruction's Execute (EX->EX), a loaded value from Memory Access (MEM->EX, so a load
+// followed by its use still costs one bubble), and a vector store or branch, which read their vector/CND in Memory Access,
+// get it from the instruction writing back in front of them (WB->MEM). Appends still wait for write back, their result
+// is the old register plus one element.
+// Without a branch predictor Fetch stops at every branch until it has gone through Memory Access. With one, Fetch goes on
+// from the predicted address (BTB target if predicted taken) and a mispredicted branch squashes everything behind it
+// when it resolves. Nothing younger than the branch has started Memory Access by then, so there's nothing to undo.
+// setWidth makes it superscalar: every stage holds up to width instructions, oldest first. Fetch reads up to width words
+// from the PC's line (a group ends at a branch), Decode issues them in order until one has to wait on an older
+// instruction (one in the same group included, there's no forwarding between instructions issuing together) or the
+// units it needs are used up for the cycle, and up to width write back each cycle. In Memory Access loads may overlap,
+// but stores, branches and vector stores only go once everything older has left the stage, so memory is written in
+// program order and what they read late has been written back.
+// With a VectorUnit, vector arithmetic stays in Execute until all its elements have gone into the unit and in Memory
+// Access until its last results are out. A vector instruction reading its vector can chain onto it (see VectorUnit),
+// anything else waits for the whole result
+public class SteppedPipeline implements PipelineEngine {
+    private static final String[] STAGE_NAMES = Instruction.STAGES;
+    private static final int FETCH = 0, DECODE = 1, EXECUTE = 2, MEMORY_ACCESS = 3, WRITE_BACK = 4;
+
+    private final Registers registers;
+    private final VectorRegisters vectorRegisters;
+    private final Executor executor;
+    private Memory instructionMemory;
+    private Memory memory;
+
+    private int width = 1, alus = 1, vectorUnits = 1, memoryPorts = 1;
+    private int slots; // Width of this run, 1 without pipelining
+    private Instruction[][] stages; // Per stage, oldest first and null past the last one
+    private boolean[][] stageDone;
+    private Instruction stalledOn; // Instruction Decode is waiting on, null if not stalled
+    private int issuable; // How many of the instructions in Decode can issue, the ones in front of stalledOn
+    private final Scoreboard scoreboard = new Scoreboard(); // Writes of the instructions past Decode
+    private MemoryAccess[] memoryAccesses; // Outstanding accesses of each instruction in Memory Access
+    private final ArrayList<Instruction> producers = new ArrayList<>(); // Bypass of the instruction being executed
+    private long[] issued; // Cycles that issued each number of instructions
+    private long aluStalls, vectorStalls, memoryStalls; // Cycles issue stopped short because a unit was used up
+
+    private boolean usePipeline;
+    private boolean halted;
+    private Instruction unresolvedBranch; // Fetch waits until this branch has gone through Memory Access
+    private BranchPredictor predictor; // null stalls Fetch at every branch
+    private BranchTargetBuffer btb;
+    private int unresolvedBranches; // Predicted branches that haven't gone through Memory Access
+    private int abandonedFetch = -1; // Wrong path address Fetch was waiting on, it has to arrive before fetching goes on
+    private boolean fetchWaiting;
+    private final int[] fetched = new int[1]; // What fetchWords returns when single issue
+    private long branches, mispredictions, squashed, speculativeKept;
+    private int instrID;
+    private long cycles;
+    private long instructionCount;
+    private boolean progress; // Whether any stage got anything done this cycle
+
+    private boolean forwarding;
+    private VectorUnit vectorUnit; // null finishes vector arithmetic in one Execute cycle
+    private int[][] forwards; // EX->EX, MEM->EX and WB->MEM forwards each instruction in Decode uses once it issues
+    private long exToEx, memToEx, wbToMem;
+
+    public SteppedPipeline(Registers registers, VectorRegisters vectorRegisters) {
+        this.registers = registers;
+        this.vectorRegisters = vectorRegisters;
+        this.executor = new Executor(registers, vectorRegisters);
+    }
+
+    // Takes effect on the next run. Instructions fetched, issued and written back per cycle (1 to 8), and how many of them
+    // can use an ALU, a vector unit and a memory port in the same cycle
+    public void setWidth(int width, int alus, int vectorUnits, int memoryPorts) {
+        if (width < 1 || width > 8)
+            throw new IllegalArgumentException("Width has to be between 1 and 8: " + width);
+        if (alus < 1 || vectorUnits < 1 || memoryPorts < 1)
+            throw new IllegalArgumentException("Need at least one of each unit: " + alus + " ALUs, " + vectorUnits + " vector units, " + memoryPorts + " memory ports");
+
+        this.width = width;
+        this.alus = alus;
+        this.vectorUnits = vectorUnits;
+        this.memoryPorts = memoryPorts;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    // Index n is how many cycles of the last run issued n instructions
+    public long[] getIssueHistogram() {
+        return issued.clone();
+    }
+
+    // Cycles in the last run where an instruction that could have issued waited because the ALUs, vector units or
+    // memory ports were all taken
+    public long getAluStalls() {
+        return aluStalls;
+    }
+
+    public long getVectorUnitStalls() {
+        return vectorStalls;
+    }
+
+    public long getMemoryPortStalls() {
+        return memoryStalls;
+    }
+
+    // null times vector arithmetic like any other instruction
+    public void setVectorUnit(VectorUnit vectorUnit) {
+        this.vectorUnit = vectorUnit;
+    }
+
+    public VectorUnit getVectorUnit() {
+        return vectorUnit;
+    }
+
+    // Takes effect on the next run
+    public void setForwarding(boolean forwarding) {
+        this.forwarding = forwarding;
+    }
+
+    // Takes effect on the next run, null turns prediction off. Taken branches need a BTB entry to be fetched past
+    public void setBranchPredictor(BranchPredictor predictor, BranchTargetBuffer btb) {
+        this.predictor = predictor;
+        this.btb = btb;
+    }
+
+    public BranchPredictor getBranchPredictor() {
+        return predictor;
+    }
+
+    public BranchTargetBuffer getBranchTargetBuffer() {
+        return btb;
+    }
+
+    // Branches that went through Memory Access in the last run, and how many of those were predicted wrong
+    public long getBranches() {
+        return branches;
+    }
+
+    public long getMispredictions() {
+        return mispredictions;
+    }
+
+    // Wrong path instructions thrown away
+    public long getSquashed() {
+        return squashed;
+    }
+
+    // Instructions fetched past an unresolved branch that were on the right path, without prediction
+    // Fetch would have waited instead of fetching each of them
+    public long getSpeculativeKept() {
+        return speculativeKept;
+    }
+
+    public boolean isForwarding() {
+        return forwarding;
+    }
+
+    // Operands forwarded from an instruction in Execute to the next one's Execute in the last run
+    public long getExToExForwards() {
+        return exToEx;
+    }
+
+    // Operands forwarded from an instruction that finished Memory Access (loads included) to the next one's Execute
+    public long getMemToExForwards() {
+        return memToEx;
+    }
+
+    // Vectors and CND read in Memory Access from the instruction writing back in the same cycle
+    public long getWbToMemForwards() {
+        return wbToMem;
+    }
+
+    // Runs the whole program on the calling thread, completed is run before returning
+    @Override
+    public void run(int programAddress, boolean usePipeline, Memory instructionMemory, Memory dataMemory, Runnable completed) {
+        this.usePipeline = usePipeline;
+        this.instructionMemory = instructionMemory;
+        this.memory = dataMemory;
+
+        slots = usePipeline ? width : 1;
+        stages = new Instruction[5][slots];
+        stageDone = new boolean[5][slots];
+        memoryAccesses = new MemoryAccess[slots];
+        forwards = new int[slots][3];
+        issued = new long[slots + 1];
+        aluStalls = vectorStalls = memoryStalls = 0;
+        stalledOn = null;
+        issuable = 0;
+        if (vectorUnit != null)
+            vectorUnit.reset();
+        scoreboard.clear();
+        halted = false;
+        unresolvedBranch = null;
+        instrID = 0;
+        cycles = 0;
+        instructionCount = 0;
+        exToEx = memToEx = wbToMem = 0;
+        unresolvedBranches = 0;
+        abandonedFetch = -1;
+        fetchWaiting = false;
+        branches = mispredictions = squashed = speculativeKept = 0;
+
+        registers.setPC(programAddress);
+
+        Simulation.setSteppedClock(true);
+        try {
+            while (!halted || !isEmpty())
+                step();
+        } finally {
+            Simulation.setSteppedClock(false);
+        }
+
+        // Cycles skipped while waiting on memory didn't issue anything either
+        long issuing = 0;
+        for (int n = 1; n < issued.length; n++)
+            issuing += issued[n];
+        issued[0] = cycles - issuing;
+
+        if (completed != null)
+            completed.run();
+    }
+
+    public long getCycles() {
+        return cycles;
+    }
+
+    @Override
+    public long getInstructionCount() {
+        return instructionCount;
+    }
+
+    private void step() {
+        cycles++;
+        Simulation.cycle();
+        long start = Simulation.now();
+        progress = false;
+
+        writeBack();
+        memoryAccess();
+        execute();
+        decode();
+        fetch();
+        advance();
+
+        // A blocking cache waiting out a write back moved the clock on in the middle of a stage, those cycles passed too
+        cycles += Simulation.now() - start;
+
+        // Every stage is waiting on memory, nothing changes until the next request finishes so skip to the cycle before it
+        long next = Simulation.nextEvent();
+        if (!progress && next > Simulation.now() + 1) {
+            cycles += next - 1 - Simulation.now();
+            Simulation.skipTo(next - 1);
+        }
+    }
+
+    private void writeBack() {
+        for (int i = 0; i < slots && stages[WRITE_BACK][i] != null; i++) {
+            Instruction instruction = stages[WRITE_BACK][i];
+
+            executor.writeBack(instruction);
+            scoreboard.writeBack(instruction);
+            instruction.addStage(STAGE_NAMES[WRITE_BACK]);
+            stages[WRITE_BACK][i] = null;
+            instructionCount++;
+            if (instruction.speculative)
+                speculativeKept++;
+            progress = true;
+
+            if (Simulation.isVerbose())
+                Simulation.log("INSTR_" + instruction.id + ": Pipeline finished");
+        }
+    }
+
+    private void memoryAccess() {
+        boolean ordered = false; // An older store, branch or vector store hasn't gone yet, nothing younger may start
+
+        for (int i = 0; i < slots && stages[MEMORY_ACCESS][i] != null; i++) {
+            Instruction instruction = stages[MEMORY_ACCESS][i];
+            if (stageDone[MEMORY_ACCESS][i]) continue;
+
+            // They have to be the oldest left, anything in front of them writes back first
+            boolean inOrder = instruction.writesMemory() || instruction.isBranchingInstruction() || instruction.getLateReadMask() != 0;
+            if (ordered || (inOrder && i > 0)) {
+                ordered |= inOrder;
+                continue;
+            }
+
+            if (instruction.vectorResult > Simulation.now()) continue; // Still coming out of the vector unit
+
+            if (memoryAccesses[i] == null)
+                memoryAccesses[i] = new MemoryAccess(STAGE_NAMES[MEMORY_ACCESS], instruction, memory, executor, vectorRegisters);
+
+            // Accesses that have to wait are polled again next cycle
+            if (!memoryAccesses[i].poll()) {
+                ordered = inOrder;
+                continue;
+            }
+
+            if (instruction.isBranchingInstruction()) {
+                int nextPC = executor.resolveBranch(instruction, instruction.pc + 1);
+                if (predictor == null)
+                    registers.setPC(nextPC);
+                else
+                    resolvePrediction(instruction, i, nextPC);
+                unresolvedBranch = null;
+            }
+
+            instruction.addStage(STAGE_NAMES[MEMORY_ACCESS]);
+            stageDone[MEMORY_ACCESS][i] = true;
+            progress = true;
+        }
+    }
+
+    private void resolvePrediction(Instruction branch, int slot, int nextPC) {
+        boolean taken = nextPC != branch.pc + 1;
+        predictor.update(branch.pc, taken);
+        if (taken)
+            btb.update(branch.pc, nextPC);
+
+        branches++;
+        unresolvedBranches--;
+        if (nextPC == branch.predictedPC) return;
+
+        // Everything behind the branch came from the wrong path
+        mispredictions++;
+        for (int s = FETCH; s <= MEMORY_ACCESS; s++) {
+            for (int i = s == MEMORY_ACCESS ? slot + 1 : 0; i < slots && stages[s][i] != null; i++) {
+                if (Simulation.isVerbose())
+                    Simulation.log("INSTR_" + stages[s][i].id + ": Squashed, INSTR_" + branch.id + " was mispredicted");
+                stages[s][i] = null;
+                stageDone[s][i] = false;
+                if (s == MEMORY_ACCESS)
+                    memoryAccesses[i] = null;
+                squashed++;
+            }
+        }
+
+        stalledOn = null;
+        issuable = 0;
+        unresolvedBranches = 0;
+        if (fetchWaiting) // Can't cancel a fetch that's waiting on memory, it has to finish first
+            abandonedFetch = registers.getPC();
+        fetchWaiting = false;
+        registers.setPC(nextPC);
+
+        // Only what's past Execute is still issued
+        scoreboard.clear();
+        for (int s = WRITE_BACK; s >= EXECUTE; s--)
+            for (int i = 0; i < slots && stages[s][i] != null; i++)
+                scoreboard.issue(stages[s][i]);
+    }
+
+    private void execute() {
+        for (int i = 0; i < slots && stages[EXECUTE][i] != null; i++) {
+            Instruction instruction = stages[EXECUTE][i];
+            if (stageDone[EXECUTE][i]) continue;
+
+            long now = Simulation.now();
+            boolean timed = vectorUnit != null && instruction.isVectorArithmetic();
+            if (!timed || instruction.vectorStart < 0) {
+                if (timed && !vectorUnit.canStart(now)) continue; // Still taking the last one in
+
+                // Only what's in Memory Access and older instructions still in Execute (done in an earlier cycle, nothing
+                // issued with the instruction can be one it depends on) haven't written their results to the registers yet
+                if (forwarding || (vectorUnit != null && vectorUnit.isChaining())) {
+                    producers.clear();
+                    for (int m = 0; m < slots && stages[MEMORY_ACCESS][m] != null; m++)
+                        producers.add(stages[MEMORY_ACCESS][m]);
+                    for (int e = 0; e < i; e++)
+                        producers.add(stages[EXECUTE][e]);
+                    executor.setBypass(producers);
+                }
+                executor.execute(instruction);
+                executor.setBypass(null);
+                progress = true;
+
+                if (timed) {
+                    instruction.vectorStart = now;
+                    instruction.vectorResult = vectorUnit.start(now, instruction.getVectorLength(), instruction.isReduction());
+                }
+            }
+
+            if (timed && now < instruction.vectorStart + vectorUnit.groups(instruction.getVectorLength()) - 1) continue;
+
+            instruction.addStage(STAGE_NAMES[EXECUTE]);
+            stageDone[EXECUTE][i] = true;
+            progress = true;
+        }
+    }
+
+    private void decode() {
+        Instruction stalled = null;
+        issuable = 0;
+
+        for (int i = 0; i < slots && stages[DECODE][i] != null; i++) {
+            Instruction instruction = stages[DECODE][i];
+
+            if (!stageDone[DECODE][i]) {
+                instruction.decode();
+                instruction.addStage(STAGE_NAMES[DECODE]);
+                stageDone[DECODE][i] = true;
+                progress = true;
+            }
+            if (stalled != null) continue; // Issue is in order, the rest wait with it
+
+            // Check if dependant on an older instruction that hasn't written back yet
+            int reads = instruction.getReadMask() & ~chained(instruction);
+            Instruction dependsOnInstr = forwarding ? checkForwarding(instruction, reads, forwards[i]) : scoreboard.youngestWriter(reads);
+            for (int older = i - 1; dependsOnInstr == null && older >= 0; older--)
+                if ((instruction.getReadMask() & stages[DECODE][older].getWriteMask()) != 0)
+                    dependsOnInstr = stages[DECODE][older];
+
+            if (dependsOnInstr == null)
+                issuable++;
+            else
+                stalled = instruction;
+
+            if (Simulation.isVerbose()) {
+                if (dependsOnInstr != null && stalledOn != instruction)
+                    Simulation.log("INSTR_" + instruction.id + ": Stalled until INSTR_" + dependsOnInstr.id + " writes back");
+                else if (dependsOnInstr == null && stalledOn == instruction)
+                    Simulation.log("INSTR_" + instruction.id + ": No longer stalled");
+            }
+        }
+
+        stalledOn = stalled;
+    }
+
+    // Vector registers a vector instruction in Decode can read while the vector arithmetic writing them is still in the
+    // vector unit, if it goes into Execute next cycle
+    private int chained(Instruction instruction) {
+        if (vectorUnit == null || !vectorUnit.isChaining() || !instruction.isVectorArithmetic()) return 0;
+
+        int chained = 0;
+        for (int mask = scoreboard.pending(instruction.getReadMask()); mask != 0; mask &= mask - 1) {
+            int register = mask & -mask;
+            Instruction producer = scoreboard.youngestWriter(register);
+            if (producer.isVectorArithmetic() && !producer.appendsToVector() && !producer.isReduction() && vectorUnit.canChain(producer.vectorStart, Simulation.now() + 1))
+                chained |= register;
+        }
+
+        return chained;
+    }
+
+    // Works out where each register in reads of an instruction in Decode comes from if it moves to Execute next cycle,
+    // counting the EX->EX, MEM->EX and WB->MEM forwards it needs into counts.
+    // Returns the instruction it still has to wait on, null if everything it reads can be forwarded
+    private Instruction checkForwarding(Instruction instruction, int reads, int[] counts) {
+        counts[0] = counts[1] = counts[2] = 0;
+
+        int late = instruction.getLateReadMask();
+        for (int mask = scoreboard.pending(reads); mask != 0; mask &= mask - 1) {
+            int register = mask & -mask;
+            if ((register & late) != 0) { // The producer has always written back by the time it goes through Memory Access
+                counts[2]++;
+                continue;
+            }
+
+            // The youngest writer is the one whose value it needs
+            Instruction producer = scoreboard.youngestWriter(register);
+            int s = EXECUTE, slot = 0;
+            while (stages[s][slot] != producer) {
+                if (++slot == slots || stages[s][slot] == null) {
+                    s++;
+                    slot = 0;
+                }
+            }
+
+            // Loads, and vector arithmetic timed by the vector unit, only have their whole result once out of Memory Access
+            boolean done = stageDone[s][slot];
+            boolean inMemoryAccess = producer.resultFromMemory() || (vectorUnit != null && producer.isVectorArithmetic());
+            boolean ready = inMemoryAccess ? s > MEMORY_ACCESS || (s == MEMORY_ACCESS && done) : s > EXECUTE || done;
+            if (producer.appendsToVector() || !ready)
+                return producer;
+
+            counts[s == EXECUTE ? 0 : 1]++;
+        }
+
+        return null;
+    }
+
+    private void fetch() {
+        if (halted || stages[FETCH][0] != null || unresolvedBranch != null) return;
+        if (!usePipeline && !isEmpty()) return; // Without pipelining the next instruction starts once the last one is done
+
+        if (abandonedFetch >= 0) {
+            if (fetchWords(abandonedFetch)[0] == Memory.WAIT) return;
+
+            abandonedFetch = -1;
+            progress = true;
+            return;
+        }
+
+        int PC = registers.getPC();
+        int[] words = fetchWords(PC);
+        fetchWaiting = words[0] == Memory.WAIT;
+        if (fetchWaiting) return;
+
+        // A wide fetch gets the PC's whole line and takes what's left of it from the PC on
+        for (int i = slots == 1 ? 0 : PC % words.length, slot = 0; i < words.length && slot < slots; i++, slot++) {
+            int out = words[i];
+
+            // A HALT past an unresolved branch may be on the wrong path, wait for the branch
+            if (out == Instruction.HALT && unresolvedBranches > 0) return;
+
+            Instruction instruction = new Instruction(instrID++);
+            progress = true;
+
+            if (instruction.checkIfHalt(out)) { // Check if halt instruction
+                Simulation.log("Reached HALT Instruction (INSTR_" + instruction.id + ")");
+                halted = true;
+                return;
+            }
+
+            instruction.setWord(out);
+            instruction.addStage(STAGE_NAMES[FETCH]);
+            instruction.pc = PC;
+            instruction.speculative = unresolvedBranches > 0;
+            registers.setPC(PC + 1);
+
+            stages[FETCH][slot] = instruction;
+            stageDone[FETCH][slot] = true;
+
+            if (Simulation.isVerbose())
+                Simulation.log("INSTR_" + instruction.id + ": Running at Fetch: " + instruction);
+
+            // The group ends at a branch, whatever comes next is fetched from where it goes
+            if (instruction.isBranchingInstruction()) {
+                if (predictor == null) {
+                    unresolvedBranch = instruction;
+                } else {
+                    int target = btb.lookup(PC);
+                    instruction.predictedPC = target >= 0 && predictor.predict(PC, target) ? target : PC + 1;
+                    registers.setPC(instruction.predictedPC);
+                    unresolvedBranches++;
+                }
+                return;
+            }
+
+            PC++;
+        }
+    }
+
+    // The word at address on its own when single issue, its whole line otherwise. { Memory.WAIT } if it has to wait
+    private int[] fetchWords(int address) {
+        if (slots > 1)
+            return instructionMemory.getLine(STAGE_NAMES[FETCH], address);
+
+        fetched[0] = instructionMemory.read(STAGE_NAMES[FETCH], address);
+        return fetched;
+    }
+
+    // Moves finished instructions into the next stage in order, as many as it has room for, starting from the back so
+    // freed stages can be refilled
+    private void advance() {
+        for (int s = WRITE_BACK; s > FETCH; s--) {
+            int free = 0;
+            while (free < slots && stages[s][free] != null)
+                free++;
+
+            int moved = 0, aluUsed = 0, vectorUsed = 0, memoryUsed = 0;
+            for (; free < slots; free++, moved++) {
+                Instruction instruction = stages[s - 1][moved];
+                if (instruction == null || !stageDone[s - 1][moved]) break;
+
+                if (s == EXECUTE) {
+                    if (moved == issuable) break;
+
+                    int unit = instruction.getUnit();
+                    if (unit == Instruction.ALU && aluUsed++ == alus) {
+                        aluStalls++;
+                        break;
+                    }
+                    if (unit == Instruction.VECTOR_UNIT && vectorUsed++ == vectorUnits) {
+                        vectorStalls++;
+                        break;
+                    }
+                    if (unit == Instruction.MEMORY_PORT && memoryUsed++ == memoryPorts) {
+                        memoryStalls++;
+                        break;
+                    }
+
+                    scoreboard.issue(instruction);
+                    if (forwarding) {
+                        exToEx += forwards[moved][0];
+                        memToEx += forwards[moved][1];
+                        wbToMem += forwards[moved][2];
+                    }
+                }
+
+                stages[s][free] = instruction;
+                stageDone[s][free] = false;
+                progress = true;
+
+                if (Simulation.isVerbose())
+                    Simulation.log("INSTR_" + instruction.id + ": Running at " + STAGE_NAMES[s] + ": " + instruction);
+            }
+
+            if (s == EXECUTE)
+                issued[moved]++;
+            if (moved > 0)
+                removeFirst(s - 1, moved);
+        }
+    }
+
+    // Drops the first count instructions of a stage once they've moved on, the rest move up to the front
+    private void removeFirst(int stage, int count) {
+        for (int i = 0; i < slots; i++) {
+            boolean keep = i + count < slots;
+            stages[stage][i] = keep ? stages[stage][i + count] : null;
+            stageDone[stage][i] = keep && stageDone[stage][i + count];
+            if (stage == MEMORY_ACCESS)
+                memoryAccesses[i] = keep ? memoryAccesses[i + count] : null;
+        }
+    }
+
+    private boolean isEmpty() {
+        for (Instruction[] stage : stages)
+            if (stage[0] != null)
+                return false;
+
+        return true;
+    }
+}
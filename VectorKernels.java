@@ -0,0 +1,147 @@
+// Element-wise arithmetic and reductions of the vector data processing instructions over plain int arrays, Executor
+// runs every vector op through get(). This one is scalar loops. SimdVectorKernels (simd/, needs the
+// jdk.incubator.vector module) does the same with the Java Vector API at the host's SIMD width and is used whenever
+// it's on the classpath and the module has been added; -Dvector.kernels=scalar keeps the loops anyway
+public class VectorKernels {
+    private static final VectorKernels KERNELS = load();
+
+    public static VectorKernels get() {
+        return KERNELS;
+    }
+
+    private static VectorKernels load() {
+        if ("scalar".equals(System.getProperty("vector.kernels")))
+            return new VectorKernels();
+
+        try {
+            return (VectorKernels) Class.forName("SimdVectorKernels").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) { // Not compiled, or the module isn't there
+            return new VectorKernels();
+        }
+    }
+
+    public String getName() {
+        return "scalar";
+    }
+
+    // dest[i] = a[i] op b[i] for the first count elements, op being the opcode of ADD (0), SUBTRACT (1), MULTIPLY (2)
+    // or DIVIDE (4). dest can be a or b, each element is read before it's written
+    public void lanewise(int opCode, int[] a, int[] b, int[] dest, int count) {
+        lanewise(opCode, a, b, dest, 0, count);
+    }
+
+    // dest[i] = a[i] op b
+    public void lanewise(int opCode, int[] a, int b, int[] dest, int count) {
+        lanewise(opCode, a, b, dest, 0, count);
+    }
+
+    // Sum of a[i] * b[i] over the first count elements
+    public int dot(int[] a, int[] b, int count) {
+        return dot(a, b, 0, count);
+    }
+
+    // acc[i] += a[i] * b[i]
+    public void fma(int[] a, int[] b, int[] acc, int count) {
+        fma(a, b, acc, 0, count);
+    }
+
+    // Sum (opcode 8), minimum (9) or maximum (10) of the first count elements. Empty gives 0, MAX_VALUE or MIN_VALUE
+    public int reduce(int opCode, int[] a, int count) {
+        return reduce(opCode, a, identity(opCode), 0, count);
+    }
+
+    protected static int identity(int opCode) {
+        switch (opCode) {
+            case 8:
+                return 0;
+            case 9:
+                return Integer.MAX_VALUE;
+            case 10:
+                return Integer.MIN_VALUE;
+            default:
+                throw new IllegalArgumentException("No vector reduction for opcode " + opCode);
+        }
+    }
+
+    // The loops themselves, over elements from to to (subclasses finish their tails with them)
+    protected void lanewise(int opCode, int[] a, int[] b, int[] dest, int from, int to) {
+        switch (opCode) {
+            case 0:
+                for (int i = from; i < to; i++)
+                    dest[i] = a[i] + b[i];
+                break;
+            case 1:
+                for (int i = from; i < to; i++)
+                    dest[i] = a[i] - b[i];
+                break;
+            case 2:
+                for (int i = from; i < to; i++)
+                    dest[i] = a[i] * b[i];
+                break;
+            case 4: // Divide by zero throws, like the processor doesn't catch it
+                for (int i = from; i < to; i++)
+                    dest[i] = a[i] / b[i];
+                break;
+            default:
+                throw new IllegalArgumentException("No lanewise vector op for opcode " + opCode);
+        }
+    }
+
+    protected void lanewise(int opCode, int[] a, int b, int[] dest, int from, int to) {
+        switch (opCode) {
+            case 0:
+                for (int i = from; i < to; i++)
+                    dest[i] = a[i] + b;
+                break;
+            case 1:
+                for (int i = from; i < to; i++)
+                    dest[i] = a[i] - b;
+                break;
+            case 2:
+                for (int i = from; i < to; i++)
+                    dest[i] = a[i] * b;
+                break;
+            case 4:
+                for (int i = from; i < to; i++)
+                    dest[i] = a[i] / b;
+                break;
+            default:
+                throw new IllegalArgumentException("No lanewise vector op for opcode " + opCode);
+        }
+    }
+
+    protected void fma(int[] a, int[] b, int[] acc, int from, int to) {
+        for (int i = from; i < to; i++)
+            acc[i] += a[i] * b[i];
+    }
+
+    // Folds elements from to to into result
+    protected int reduce(int opCode, int[] a, int result, int from, int to) {
+        switch (opCode) {
+            case 8:
+                for (int i = from; i < to; i++)
+                    result += a[i];
+                break;
+            case 9:
+                for (int i = from; i < to; i++)
+                    result = Math.min(result, a[i]);
+                break;
+            case 10:
+                for (int i = from; i < to; i++)
+                    result = Math.max(result, a[i]);
+                break;
+            default:
+                throw new IllegalArgumentException("No vector reduction for opcode " + opCode);
+        }
+
+        return result;
+    }
+
+    protected int dot(int[] a, int[] b, int from, int to) {
+        int sum = 0;
+        for (int i = from; i < to; i++)
+            sum += a[i] * b[i];
+
+        return sum;
+    }
+}
@@ -6,67 +6,90 @@ import javafx.collections.ObservableList;
 
 import java.util.ArrayList;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 public class VectorRegisters {
-    ArrayList<ArrayList<Integer>> vectorData;
+    public static final int MIN_VECTOR_SIZE = 16, MAX_VECTOR_SIZE = 256; // Range of the maximum vector length (MVL)
+
+    // One int[] per register, elements past lengths[register] haven't been written yet (and read as 0)
+    private final int[][] vectorData;
+    private final int[] lengths;
+    private final int vectorSize;
+    private int vectorLength; // VL, the length of vector instructions that leave theirs out. SETVL sets it, starts at MVL
     public ObservableList<VRData> vrData;
 
     //Set up the UI for Vector Registers
 
     public VectorRegisters(int size, int vectorSize){
-        vectorData = new ArrayList<>();
+        this(size, vectorSize, true);
+    }
+
+    public VectorRegisters(int size, int vectorSize, boolean showUI){
+        this.vectorData = new int[size][vectorSize];
+        this.lengths = new int[size];
+        this.vectorSize = vectorSize;
+        this.vectorLength = vectorSize;
         ArrayList<VRData> uiData = new ArrayList<>();
 
-        for (int i = 0; i < size;i++) {
-            vectorData.add(new ArrayList<>());
-            uiData.add(new VRData("V" + i));
+        if (showUI) {
+            for (int i = 0; i < size; i++)
+                uiData.add(new VRData("V" + i));
 
-            for(int j =0; j < vectorSize;j++) {
-                vectorData.get(i).add(null);
-            }
+            vrData = FXCollections.observableList(uiData);
         }
-
-        vrData = FXCollections.observableList(uiData);
     }
 
-    public void set(int register, ArrayList<Integer> value){
-        //Making a deep copy
-        for(int i = 0;i < value.size(); i++) {
-            vectorData.get(register).set(i, value.get(i)); // the remaining values are going to be zero, since sorting that out is the compiler's job
-            vrData.get(register).set(i, value.get(i));
-        }
+    // Writes the first count values into the register, the elements after them keep what they had
+    public void set(int register, int[] value, int count){
+        count = Math.min(count, vectorSize); // the remaining values are going to be zero, since sorting that out is the compiler's job
+        System.arraycopy(value, 0, vectorData[register], 0, count);
+        lengths[register] = Math.max(lengths[register], count);
+
+        if (vrData != null)
+            for (int i = 0; i < count; i++)
+                vrData.get(register).set(i, value[i]);
     }
 
     //For individual load(since we don't have a vector immediate to populate the memory)
     public void append(int register, int value){
-        ArrayList<Integer> vRegister = vectorData.get(register);
-        int length = getLength(register);
+        int length = lengths[register];
 
-        if (length == vRegister.size()){
+        if (length == vectorSize){
             System.out.println("Vector size limit reached");
         } else{
-            vRegister.set(length,value);
-            vrData.get(register).set(length, value);
+            vectorData[register][length] = value;
+            lengths[register] = length + 1;
+            if (vrData != null)
+                vrData.get(register).set(length, value);
         }
     }
 
-    private int getLength(int register) {
-        ArrayList<Integer> vRegister = vectorData.get(register);
+    public int getVectorSize() {
+        return vectorSize;
+    }
+
+    public int getVectorLength() {
+        return vectorLength;
+    }
 
-        for(int i = 0; i < vRegister.size(); i++)
-            if(vRegister.get(i) == null)
-                return i;
+    public void setVectorLength(int vectorLength) {
+        this.vectorLength = vectorLength;
+    }
 
-        return vRegister.size();
+    // What SETVL gives for a requested length: min(requested, MVL), and 0 for a negative one
+    public int clampVectorLength(int requested) {
+        return Math.max(0, Math.min(requested, vectorSize));
     }
 
-    public void print(int register) {
-        System.out.println("V" + register + ": [" + get(register).stream().map(String::valueOf)
-                .collect(Collectors.joining(", ")) + "]");
+    // Copies the first count elements of the register into dest
+    public void get(int register, int[] dest, int count){
+        System.arraycopy(vectorData[register], 0, dest, 0, Math.min(count, vectorSize));
     }
 
-    public ArrayList<Integer> get(int register){
-        return vectorData.get(register);
+    public void print(int register) {
+        System.out.println("V" + register + ": [" + IntStream.range(0, vectorSize)
+                .mapToObj(i -> i < lengths[register] ? String.valueOf(vectorData[register][i]) : "null")
+                .collect(Collectors.joining(", ")) + "]");
     }
 
     public class VRData {
@@ -97,7 +120,8 @@ public class VectorRegisters {
         }
 
         private void set(int i, int val) {
-            regs[i].set(val + "");
+            if (i < regs.length) // The table only has columns for the first 16 elements
+                regs[i].set(val + "");
         }
 
         public SimpleStringProperty r0Property() {
@@ -0,0 +1,89 @@
+// Timing of the vector arithmetic pipe (vector data processing, types 9 and 10) for the stepped and out of order engines.
+// lanes elements go in per cycle, so an instruction of VL elements takes ceil(VL / lanes) cycles to go in, and each
+// group of elements comes out startup cycles after it went in. The next instruction goes in once the last one's
+// elements are all in. With chaining, an instruction reading a vector the pipe is still producing goes in once the
+// producer's first group is out instead of waiting for its last: it takes its groups in the order they come out, so it
+// never overtakes the producer. A reduction (SUM, MIN, MAX) then combines its lanes' partial results in a tree,
+// ceil(log2(lanes used)) more cycles, and only has its scalar at the end so nothing chains off it.
+// Vector loads and stores don't use the pipe, they go through Memory Access alongside it.
+// Times are Simulation.now() cycles
+public class VectorUnit {
+    private final int lanes, startup;
+    private final boolean chaining;
+    private long free; // Cycle the pipe takes its next instruction
+    private long instructions, busyCycles;
+
+    public VectorUnit(int lanes, int startup, boolean chaining) {
+        if (lanes < 1 || startup < 0)
+            throw new IllegalArgumentException("Vector unit needs at least one lane and a startup of 0 or more: " + lanes + " lanes, startup " + startup);
+
+        this.lanes = lanes;
+        this.startup = startup;
+        this.chaining = chaining;
+    }
+
+    // Empties the pipe and its stats, engines call it when a run starts
+    public void reset() {
+        free = 0;
+        instructions = busyCycles = 0;
+    }
+
+    public int getLanes() {
+        return lanes;
+    }
+
+    public int getStartup() {
+        return startup;
+    }
+
+    public boolean isChaining() {
+        return chaining;
+    }
+
+    // Instructions that went through the pipe in the last run, and the cycles it spent taking elements in
+    public long getInstructions() {
+        return instructions;
+    }
+
+    public long getBusyCycles() {
+        return busyCycles;
+    }
+
+    // Cycles an instruction of vl elements takes to go in
+    public int groups(int vl) {
+        return Math.max(1, (vl + lanes - 1) / lanes);
+    }
+
+    public boolean canStart(long now) {
+        return now >= free;
+    }
+
+    // Levels of the tree that combines a reduction's per-lane results
+    public int treeLevels(int vl) {
+        int used = Math.max(1, Math.min(vl, lanes));
+        return 32 - Integer.numberOfLeadingZeros(used - 1);
+    }
+
+    // Starts an instruction of vl elements at now and returns the cycle its last group (or a reduction's result) comes
+    // out. Every cycle something changes for it is scheduled, so an engine with nothing else to do doesn't skip past them
+    public long start(long now, int vl, boolean reduction) {
+        int groups = groups(vl);
+        long last = now + groups - 1 + startup + (reduction ? treeLevels(vl) : 0);
+
+        free = now + groups;
+        instructions++;
+        busyCycles += groups;
+
+        Simulation.schedule(now + groups - 1); // All in
+        Simulation.schedule(free);
+        if (chaining)
+            Simulation.schedule(now + startup + 1); // First group out, chained instructions can go in
+        Simulation.schedule(last);
+        return last;
+    }
+
+    // Whether an instruction reading the vector of one that started at start can go in at cycle at
+    public boolean canChain(long start, long at) {
+        return chaining && start >= 0 && at > start + startup;
+    }
+}
@@ -0,0 +1,169 @@
+import java.util.ArrayDeque;
+
+// Bounded FIFO of writes on their way from a cache to its next memory, so a dirty eviction or write miss
+// doesn't wait for the write itself. Writes to a line that is already waiting are combined into its entry,
+// and the oldest entry is written out (drained) one poll per cycle while the cache keeps serving requests.
+// Reads of a line with pending writes see them, so the buffer never has to be flushed for correctness
+public class WriteBuffer {
+    private final Memory nextMemory;
+    private final String callingFrom;
+    private final int capacity, lineLength;
+    private final ArrayDeque<Entry> entries = new ArrayDeque<>();
+    private long lastDrain = -1;
+    private long writes = 0, combined = 0, fullStalls = 0, readHits = 0;
+
+    private static class Entry {
+        public final int lineAddress;
+        public final int[] words;
+        public final boolean[] valid;
+        public boolean draining = false; // Nothing more is combined into an entry once its write has started
+
+        public Entry(int lineAddress, int lineLength) {
+            this.lineAddress = lineAddress;
+            this.words = new int[lineLength];
+            this.valid = new boolean[lineLength];
+        }
+    }
+
+    public WriteBuffer(int capacity, int lineLength, Memory nextMemory, String callingFrom) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("Write buffer needs at least one entry: " + capacity);
+
+        this.capacity = capacity;
+        this.lineLength = lineLength;
+        this.nextMemory = nextMemory;
+        this.callingFrom = callingFrom;
+    }
+
+    // Buffers count values for address onwards (within one line). Returns false if the buffer is full,
+    // unless force is set: callers that can't wait (posted write backs) let it go over capacity
+    public boolean write(int address, int[] values, int from, int count, boolean force) {
+        return write(address, values, null, from, count, force);
+    }
+
+    // The same for only the values marked written (all of them if written is null)
+    public boolean write(int address, int[] values, boolean[] written, int from, int count, boolean force) {
+        int lineAddress = address & ~(lineLength - 1);
+        Entry entry = null;
+
+        for (Entry e : entries)
+            if (e.lineAddress == lineAddress && !e.draining)
+                entry = e;
+
+        if (entry != null) {
+            combined++;
+        } else {
+            if (entries.size() >= capacity && !force) {
+                fullStalls++;
+                Simulation.stallCycle(); // A caller retrying outside a run still moves the clock, so drain() gets to run
+                return false;
+            }
+
+            entry = new Entry(lineAddress, lineLength);
+            entries.add(entry);
+        }
+
+        int offset = address - lineAddress;
+        for (int i = 0; i < count; i++) {
+            if (written != null && !written[from + i]) continue;
+
+            entry.words[offset + i] = values[from + i];
+            entry.valid[offset + i] = true;
+        }
+
+        writes++;
+        return true;
+    }
+
+    // The whole line if pending writes cover all of it, otherwise null (the line has to come from the next memory)
+    public int[] readLine(int lineAddress) {
+        int[] line = new int[lineLength];
+        boolean[] covered = new boolean[lineLength];
+        if (!overlay(lineAddress, line, covered))
+            return null;
+
+        for (boolean c : covered)
+            if (!c)
+                return null;
+
+        readHits++;
+        return line;
+    }
+
+    // Copies pending writes to the line (read from the next memory) over it, oldest first
+    public void overlay(int lineAddress, int[] line) {
+        overlay(lineAddress, line, null);
+    }
+
+    private boolean overlay(int lineAddress, int[] line, boolean[] covered) {
+        boolean found = false;
+
+        for (Entry entry : entries) {
+            if (entry.lineAddress != lineAddress) continue;
+
+            found = true;
+            for (int i = 0; i < lineLength; i++) {
+                if (!entry.valid[i]) continue;
+
+                line[i] = entry.words[i];
+                if (covered != null)
+                    covered[i] = true;
+            }
+        }
+
+        return found;
+    }
+
+    // Polls the oldest entry's write, at most once per cycle however many accesses the cache gets
+    public void drain() {
+        long now = Simulation.now();
+        if (now == lastDrain) return;
+
+        lastDrain = now;
+        drainNow();
+    }
+
+    // Polls the oldest entry's write once. Its buffered words go out as one write, masked if they don't cover the line
+    public void drainNow() {
+        Entry head = entries.peek();
+        if (head == null) return;
+
+        head.draining = true;
+        if (nextMemory.writeMasked(callingFrom, head.lineAddress, head.words, head.valid) == Memory.WAIT)
+            return;
+
+        entries.poll();
+    }
+
+    public boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    // Writes taken into the buffer, combined ones included
+    public long getWrites() {
+        return writes;
+    }
+
+    // Writes that went into an entry already waiting for the same line
+    public long getCombined() {
+        return combined;
+    }
+
+    // Writes turned away because the buffer was full
+    public long getFullStalls() {
+        return fullStalls;
+    }
+
+    // Misses served entirely from pending writes
+    public long getReadHits() {
+        return readHits;
+    }
+}
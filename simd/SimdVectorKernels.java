@@ -0,0 +1,116 @@
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+// VectorKernels on the Java Vector API: SPECIES_PREFERRED lanes at a time, the tail (and divides) with the scalar loops.
+// Kept out of the top level sources since it only compiles with the incubator module added:
+//   javac --add-modules jdk.incubator.vector -cp out -d out simd/SimdVectorKernels.java
+//   java --add-modules jdk.incubator.vector -cp out Simulator ...
+// int arithmetic wraps the same whatever order the lanes add up in, so results match the scalar loops exactly.
+// One loop per op: the JIT only turns lanewise calls into SIMD instructions when it can see which op it is
+public class SimdVectorKernels extends VectorKernels {
+    private static final VectorSpecies<Integer> SPECIES = IntVector.SPECIES_PREFERRED;
+
+    @Override
+    public String getName() {
+        return "Vector API (" + SPECIES.length() + " lanes)";
+    }
+
+    @Override
+    public void lanewise(int opCode, int[] a, int[] b, int[] dest, int count) {
+        int bound = SPECIES.loopBound(count), i = 0;
+
+        switch (opCode) {
+            case 0:
+                for (; i < bound; i += SPECIES.length())
+                    IntVector.fromArray(SPECIES, a, i).add(IntVector.fromArray(SPECIES, b, i)).intoArray(dest, i);
+                break;
+            case 1:
+                for (; i < bound; i += SPECIES.length())
+                    IntVector.fromArray(SPECIES, a, i).sub(IntVector.fromArray(SPECIES, b, i)).intoArray(dest, i);
+                break;
+            case 2:
+                for (; i < bound; i += SPECIES.length())
+                    IntVector.fromArray(SPECIES, a, i).mul(IntVector.fromArray(SPECIES, b, i)).intoArray(dest, i);
+                break;
+            default: // No int divide instruction to map lanes onto, the API's fallback is far slower than the loop
+                break;
+        }
+        lanewise(opCode, a, b, dest, i, count);
+    }
+
+    @Override
+    public void lanewise(int opCode, int[] a, int b, int[] dest, int count) {
+        int bound = SPECIES.loopBound(count), i = 0;
+
+        switch (opCode) {
+            case 0:
+                for (; i < bound; i += SPECIES.length())
+                    IntVector.fromArray(SPECIES, a, i).add(b).intoArray(dest, i);
+                break;
+            case 1:
+                for (; i < bound; i += SPECIES.length())
+                    IntVector.fromArray(SPECIES, a, i).sub(b).intoArray(dest, i);
+                break;
+            case 2:
+                for (; i < bound; i += SPECIES.length())
+                    IntVector.fromArray(SPECIES, a, i).mul(b).intoArray(dest, i);
+                break;
+            default:
+                break;
+        }
+        lanewise(opCode, a, b, dest, i, count);
+    }
+
+    @Override
+    public void fma(int[] a, int[] b, int[] acc, int count) {
+        int bound = SPECIES.loopBound(count), i = 0;
+
+        for (; i < bound; i += SPECIES.length())
+            IntVector.fromArray(SPECIES, a, i).mul(IntVector.fromArray(SPECIES, b, i)).add(IntVector.fromArray(SPECIES, acc, i)).intoArray(acc, i);
+        fma(a, b, acc, i, count);
+    }
+
+    @Override
+    public int reduce(int opCode, int[] a, int count) {
+        int bound = SPECIES.loopBound(count), i = 0;
+        int result = identity(opCode);
+
+        switch (opCode) {
+            case 8: {
+                IntVector sums = IntVector.zero(SPECIES);
+                for (; i < bound; i += SPECIES.length())
+                    sums = sums.add(IntVector.fromArray(SPECIES, a, i));
+                result = sums.reduceLanes(VectorOperators.ADD);
+                break;
+            }
+            case 9: {
+                IntVector mins = IntVector.broadcast(SPECIES, result);
+                for (; i < bound; i += SPECIES.length())
+                    mins = mins.min(IntVector.fromArray(SPECIES, a, i));
+                result = mins.reduceLanes(VectorOperators.MIN);
+                break;
+            }
+            case 10: {
+                IntVector maxes = IntVector.broadcast(SPECIES, result);
+                for (; i < bound; i += SPECIES.length())
+                    maxes = maxes.max(IntVector.fromArray(SPECIES, a, i));
+                result = maxes.reduceLanes(VectorOperators.MAX);
+                break;
+            }
+            default:
+                break;
+        }
+        return reduce(opCode, a, result, i, count);
+    }
+
+    @Override
+    public int dot(int[] a, int[] b, int count) {
+        IntVector sums = IntVector.zero(SPECIES);
+        int bound = SPECIES.loopBound(count);
+
+        for (int i = 0; i < bound; i += SPECIES.length())
+            sums = sums.add(IntVector.fromArray(SPECIES, a, i).mul(IntVector.fromArray(SPECIES, b, i)));
+        return sums.reduceLanes(VectorOperators.ADD) + dot(a, b, bound, count);
+    }
+}